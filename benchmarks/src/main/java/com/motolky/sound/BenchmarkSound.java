@@ -0,0 +1,68 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * What the benchmarks feed to the sound path: the codecs, chosen by name,
+ * and a second of a tone, which the voice detector takes as voice.
+ */
+class BenchmarkSound {
+    static final String SPEEX = "speex";
+    static final String FAKE = "fake";
+
+    // The frames of the codec in a block read from the microphone
+    static final int FRAMES_PER_BLOCK = Common.AUDIO_BUFFER_LEN / Common.FRAME_LEN;
+    static final int BLOCKS = Common.SAMPLE_RATE / Common.AUDIO_BUFFER_LEN;
+
+    /**
+     * @param name - SPEEX for the native codecs, which need the speex
+     *          library in java.library.path, or FAKE for the codecs of
+     *          the tests
+     * @return the factory of the codecs
+     */
+    static ICodecFactory getCodecs(String name) {
+        if (SPEEX.equals(name))
+            return ICodecFactory.SPEEX;
+        if (FAKE.equals(name))
+            return new FakeCodecFactory();
+        throw new IllegalArgumentException("Unknown codec " + name);
+    }
+
+    /**
+     * @return BLOCKS blocks of Common.AUDIO_BUFFER_LEN samples of a tone
+     */
+    static short[][] createTone() {
+        ToneSource tone = new ToneSource(440, 0.3);
+        short[][] blocks = new short[BLOCKS][Common.AUDIO_BUFFER_LEN];
+        for (int i = 0; i < BLOCKS; i++)
+            tone.read(blocks[i], 0, Common.AUDIO_BUFFER_LEN);
+        return blocks;
+    }
+}
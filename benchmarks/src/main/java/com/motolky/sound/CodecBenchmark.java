@@ -0,0 +1,147 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.motolky.Common;
+
+/**
+ * The speex codecs, one frame at a time, at every quality and complexity.
+ * They need the speex library built for the host in java.library.path.
+ * Every combination is measured, so a run takes a while; -p narrows it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    /**
+     * An encoder and a second of a tone to encode
+     */
+    @State(Scope.Thread)
+    public static class Encoding {
+        @Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10" })
+        public int quality;
+
+        @Param({ "1", "2", "3", "4", "5", "6", "7", "8", "9", "10" })
+        public int complexity;
+
+        private SoundEncoder mEncoder;
+        private short[] mSound;
+        private byte[] mEncoded;
+        private int mNext = 0;
+
+        @Setup
+        public void setUp() throws Exception {
+            mEncoder = new SoundEncoder();
+            mEncoder.setQuality(quality);
+            mEncoder.setComplexity(complexity);
+            mSound = toSound(BenchmarkSound.createTone());
+            mEncoded = new byte[mEncoder.getMaxEncodedSize()];
+        }
+
+        @TearDown
+        public void tearDown() {
+            mEncoder.exit();
+        }
+    }
+
+    /**
+     * A decoder and a second of a tone, encoded at the given quality
+     */
+    @State(Scope.Thread)
+    public static class Decoding {
+        @Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10" })
+        public int quality;
+
+        private SoundDecoder mDecoder;
+        private byte[][] mFrames;
+        private int[] mLengths;
+        private short[] mDecoded;
+        private int mNext = 0;
+
+        @Setup
+        public void setUp() throws Exception {
+            SoundEncoder encoder = new SoundEncoder();
+            encoder.setQuality(quality);
+            encoder.setComplexity(Codec.CODEC_COMPLEXITY);
+            short[] sound = toSound(BenchmarkSound.createTone());
+            int frameSize = encoder.getSampleSize();
+            mFrames = new byte[sound.length / frameSize][encoder.getMaxEncodedSize()];
+            mLengths = new int[mFrames.length];
+            for (int i = 0; i < mFrames.length; i++)
+                mLengths[i] = encoder.encode(sound, i * frameSize, frameSize, mFrames[i], 0);
+            encoder.exit();
+
+            mDecoder = new SoundDecoder();
+            mDecoded = new short[mDecoder.getSampleSize()];
+        }
+
+        @TearDown
+        public void tearDown() {
+            mDecoder.exit();
+        }
+    }
+
+    @Benchmark
+    public int encode(Encoding state) {
+        int frameSize = state.mEncoder.getSampleSize();
+        int start = state.mNext;
+        state.mNext = (start + frameSize) % state.mSound.length;
+        return state.mEncoder.encode(state.mSound, start, frameSize, state.mEncoded, 0);
+    }
+
+    @Benchmark
+    public int decode(Decoding state) {
+        int i = state.mNext;
+        state.mNext = (i + 1) % state.mFrames.length;
+        return state.mDecoder.decode(state.mFrames[i], 0, state.mLengths[i], state.mDecoded, 0);
+    }
+
+    private static short[] toSound(short[][] blocks) {
+        short[] sound = new short[blocks.length * Common.AUDIO_BUFFER_LEN];
+        for (int i = 0; i < blocks.length; i++)
+            System.arraycopy(blocks[i], 0, sound, i * Common.AUDIO_BUFFER_LEN, Common.AUDIO_BUFFER_LEN);
+        return sound;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.motolky.Common;
+import com.motolky.communication.Packetizer;
+
+/**
+ * The framing of the received stream: a packet of frames goes in the
+ * buffer of a player and the frames are taken out one by one. The frames
+ * have the size the encoder gives at a level of the QualityLadder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerBufferBenchmark {
+    private static final int PACKET_FRAMES = 2;
+
+    @Param({ "0", "1", "2", "3" })
+    public int level;
+
+    private PlayerBuffer mBuffer;
+    private byte[] mPacket;
+    private Frame mFrame;
+
+    @Setup
+    public void setUp() {
+        // The same size as the buffer of a Player
+        mBuffer = new PlayerBuffer(Packetizer.MAX_PACKET_LEN + Frame.HEADER_LEN + Frame.MAX_PAYLOAD_LEN);
+        mFrame = new Frame(new byte[Frame.MAX_PAYLOAD_LEN], 0, 0, 0, 0);
+
+        int payload = (QualityLadder.getBitrate(level) * Common.FRAME_LEN / Common.SAMPLE_RATE + 7) / 8;
+        mPacket = new byte[PACKET_FRAMES * (Frame.HEADER_LEN + payload)];
+        int offset = 0;
+        for (int i = 0; i < PACKET_FRAMES; i++) {
+            offset += Frame.writeHeader(mPacket, offset, payload, i, i * Common.FRAME_LEN, 0);
+            for (int j = 0; j < payload; j++)
+                mPacket[offset++] = (byte)j;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKET_FRAMES)
+    public int insertDataAndGetFrame() {
+        if (!mBuffer.insertData(mPacket, mPacket.length))
+            throw new IllegalStateException("The buffer overflowed");
+        int length = 0;
+        for (int i = 0; i < PACKET_FRAMES; i++) {
+            if (!mBuffer.getFrame(mFrame))
+                throw new IllegalStateException("A frame is missing");
+            length += mFrame.getLength();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.motolky.Common;
+import com.motolky.communication.ISendHandler;
+
+/**
+ * The send stage: an encoded block is handed to every peer of the group.
+ * The handlers only count what they get, so what is measured is the fan
+ * out of the record thread itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendTrafficBenchmark {
+    // A group has at most Common.MAX_GROUP_MEMBERS members
+    @Param({ "1", "2", "4", "6" })
+    public int handlers;
+
+    private RecordThread mRecordThread;
+    private CountingHandler[] mHandlers;
+    private byte[] mEncoded;
+    private int mEncodedLen;
+
+    /**
+     * A peer that counts the bytes it is asked to send
+     */
+    private static class CountingHandler implements ISendHandler {
+        private long mBytes = 0;
+        private int mLast = 0;
+
+        @Override
+        public void sendData(byte[] buffer, int bytes) {
+            mBytes += bytes;
+            mLast = buffer[bytes - 1];
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // The block is encoded with the codecs of the tests, since only
+        // its size matters here
+        SoundProcessor processor = new SoundProcessor(Common.AUDIO_BUFFER_LEN,
+                BenchmarkSound.getCodecs(BenchmarkSound.FAKE));
+        short[] block = BenchmarkSound.createTone()[0];
+        processor.addRawSound(block, block.length);
+        mEncoded = new byte[Common.AUDIO_BUFFER_LEN * 2];
+        mEncodedLen = processor.getProcessedSound(mEncoded, mEncoded.length);
+
+        // The thread is not started, the benchmark is its send stage
+        mRecordThread = new RecordThread(new ToneSource(440, 0.3), processor);
+        mHandlers = new CountingHandler[handlers];
+        for (int i = 0; i < handlers; i++) {
+            mHandlers[i] = new CountingHandler();
+            mRecordThread.addSendHandler(mHandlers[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int i = 0; i < handlers; i++)
+            if (mHandlers[i].mBytes == 0)
+                throw new IllegalStateException("A handler got nothing");
+        mRecordThread.exit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkSound.FRAMES_PER_BLOCK)
+    public void sendTraffic() {
+        mRecordThread.sendTraffic(mEncoded, mEncodedLen);
+    }
+}
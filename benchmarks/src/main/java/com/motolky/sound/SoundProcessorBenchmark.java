@@ -0,0 +1,87 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.motolky.Common;
+
+/**
+ * The encode stage: a block from the microphone goes in the sound
+ * processor and its encoded frames are taken out, like EncodeThread does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoundProcessorBenchmark {
+    @Param({ BenchmarkSound.FAKE, BenchmarkSound.SPEEX })
+    public String codec;
+
+    private SoundProcessor mProcessor;
+    private short[][] mBlocks;
+    private byte[] mEncoded;
+    private int mNext = 0;
+
+    @Setup
+    public void setUp() {
+        mProcessor = new SoundProcessor(Common.AUDIO_BUFFER_LEN, BenchmarkSound.getCodecs(codec));
+        mBlocks = BenchmarkSound.createTone();
+        mEncoded = new byte[Common.AUDIO_BUFFER_LEN * 2];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProcessor.exit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkSound.FRAMES_PER_BLOCK)
+    public int addRawSoundAndGetProcessedSound() {
+        short[] block = mBlocks[mNext];
+        mNext = (mNext + 1) % mBlocks.length;
+        mProcessor.addRawSound(block, block.length);
+        return mProcessor.getProcessedSound(mEncoded, mEncoded.length);
+    }
+}
@@ -1,35 +1,72 @@
-/*
-The interface to speex needs to be defined
-
-The following native functions need to be defined:
-
-
-	private static native void setPreprocessorEnable(boolean paramBoolean);
-
-	private native boolean createEncoder();
-
-	private native void destroyEncoder();
-
-	private native int encode(short[] paramArrayOfShort, byte[] paramArrayOfByte, int paramInt);
-
-	private static native int getEncoderComplexity();
-
-	private native int getEncoderFrameSize();
-
-	private static native void setEncoderComplexity(int paramInt);
-
-	private static native void setEncoderDenoise(boolean paramBoolean);
-
-	private static native void setEncoderQuality(int paramInt);
-
-	private static native void setEncoderVAD(boolean paramBoolean);
-
-
-	private native int createDecoder();
-
-	private native boolean decode(int paramInt1, byte[] paramArrayOfByte, int paramInt2, short[] paramArrayOfShort);
-
-	private native void destroyDecoder(int paramInt);
-
-	private native int getDecoderFrameSize(int paramInt);
+/*
+The interface to speex needs to be defined
+
+The following native functions need to be defined:
+
+
+	Every encoder owns its speex encoder and preprocessor state. The
+	native code allocates them in createEncoder and returns a pointer to
+	them as an opaque handle. All the other encoder functions receive that
+	handle, so they must not use any global state.
+
+	private static native void setPreprocessorEnable(long handle, boolean enable);
+
+	private static native long createEncoder();
+
+		Returns 0 if the encoder could not be created.
+
+	private static native void destroyEncoder(long handle);
+
+	private static native int encode(long handle, short[] in, int inOffset, byte[] out, int outOffset, int maxLen);
+
+		Encodes getEncoderFrameSize() samples starting at in[inOffset] and writes
+		at most maxLen bytes starting at out[outOffset]. Returns the number of
+		bytes written. It must not allocate Java objects.
+
+	private static native int encodeDirect(long handle, ShortBuffer in, int inOffset, ByteBuffer out, int outOffset, int maxLen);
+
+		Same as encode, but works on direct buffers. The memory is obtained
+		with GetDirectBufferAddress, so nothing is pinned or copied. The
+		offsets are in elements of the respective buffer.
+
+	private static native int getEncoderComplexity(long handle);
+
+	private static native int getEncoderFrameSize(long handle);
+
+	private static native void setEncoderComplexity(long handle, int complexity);
+
+	private static native void setEncoderDenoise(long handle, boolean denoise);
+
+	private static native void setEncoderQuality(long handle, int quality);
+
+	private static native void setEncoderVAD(long handle, boolean enable);
+
+
+	Like the encoders, every decoder owns its speex decoder state, allocated
+	on demand in createDecoder and referred by an opaque handle. There is no
+	fixed table of decoder slots.
+
+	private static native long createDecoder();
+
+		Returns 0 if the decoder could not be created.
+
+	private static native boolean decode(long handle, byte[] data, int offset, int len, short[] out, int outOffset);
+
+		Decodes len bytes starting at data[offset] and writes getDecoderFrameSize()
+		samples starting at out[outOffset]. It must not allocate Java objects.
+
+	private static native boolean decodeDirect(long handle, ByteBuffer data, int offset, int len, ShortBuffer out, int outOffset);
+
+		Same as decode, but works on direct buffers, like encodeDirect.
+
+	private static native boolean decodeLost(long handle, short[] out, int outOffset);
+
+		Called for a frame that never arrived. Runs speex_decode with a NULL
+		bit stream, so the decoder extrapolates the previous frames and fades
+		them out, and writes getDecoderFrameSize() samples starting at
+		out[outOffset].
+
+	private static native void destroyDecoder(long handle);
+
+	private static native int getDecoderFrameSize(long handle);
 */
\ No newline at end of file
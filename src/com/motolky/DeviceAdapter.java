@@ -1,61 +1,61 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky;
-
-import java.util.List;
-
-import android.content.Context;
-import android.widget.ArrayAdapter;
-
-import com.motolky.communication.Device;
-
-/**
- * Adapter for a list containing devices (a class describing a bluetooth device)
- */
-public class DeviceAdapter extends ArrayAdapter<Device> {
-    protected final List<Device> mItems;
-    protected final INotifiable mNotifyHandler;
-    protected Context mContext;
-    protected int mListWidth;
-
-    /**
-     * Constructor
-     * @param context - the context to run in
-     * @param textViewResourceId - item type
-     * @param items - the list with the items
-     * @param notifiable - the handler that will display the texts
-     */
-    public DeviceAdapter(Context context, int textViewResourceId, List<Device> items,
-            INotifiable notifiable, int listWidth) {
-        super(context, textViewResourceId, items);
-        mContext = context;
-        this.mItems = items;
-        this.mListWidth = listWidth;
-        mNotifyHandler = notifiable;
-    }
-}
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky;
+
+import java.util.List;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+
+import com.motolky.communication.Device;
+
+/**
+ * Adapter for a list containing devices (a class describing a bluetooth device)
+ */
+public class DeviceAdapter extends ArrayAdapter<Device> {
+    protected final List<Device> mItems;
+    protected final INotifiable mNotifyHandler;
+    protected Context mContext;
+    protected int mListWidth;
+
+    /**
+     * Constructor
+     * @param context - the context to run in
+     * @param textViewResourceId - item type
+     * @param items - the list with the items
+     * @param notifiable - the handler that will display the texts
+     */
+    public DeviceAdapter(Context context, int textViewResourceId, List<Device> items,
+            INotifiable notifiable, int listWidth) {
+        super(context, textViewResourceId, items);
+        mContext = context;
+        this.mItems = items;
+        this.mListWidth = listWidth;
+        mNotifyHandler = notifiable;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky;
+
+import android.util.Log;
+
+/**
+ * Writes the messages of the sound pipeline and of the send queues to the
+ * Android log. Off the phone, for example when the pipeline is tested on a
+ * plain JVM, the messages are written to the standard streams instead, so
+ * those classes do not need the Android classes.
+ */
+public class Logger {
+    private static final boolean ON_ANDROID =
+        "Dalvik".equals(System.getProperty("java.vm.name"));
+
+    public static void e(String tag, String msg) {
+        if (ON_ANDROID)
+            Log.e(tag, msg);
+        else
+            System.err.println(tag + ": " + msg);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        if (ON_ANDROID) {
+            Log.e(tag, msg, tr);
+        } else {
+            System.err.println(tag + ": " + msg);
+            tr.printStackTrace();
+        }
+    }
+
+    public static void d(String tag, String msg) {
+        if (ON_ANDROID)
+            Log.d(tag, msg);
+        else
+            System.out.println(tag + ": " + msg);
+    }
+}
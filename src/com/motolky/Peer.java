@@ -1,196 +1,328 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky;
-
-import java.io.IOException;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-import android.bluetooth.BluetoothSocket;
-import android.util.Log;
-
-import com.motolky.communication.CommunicationThread;
-import com.motolky.communication.Device;
-import com.motolky.communication.IConnectNotifiable;
-import com.motolky.communication.IConnectable;
-import com.motolky.sound.Player;
-import com.motolky.sound.RecordThread;
-
-/**
- * The class that defines a communication peer. This class makes the
- * abstraction between a bluetooth device that is listening for
- * connections and one that is connecting.
- *
- * It basically gets an IConnectable object that gives it an open socket.
- * Moreover it gets a thread (aka recording thread) that is getting sound from the local microphone.
- * It creates the player on which the received sound will be played.
- * It creates a communication thread that receives data from the socket
- * and sends it to the player. Moreover, it passes the socket communication
- * channel to the recording thread, such that the latter can send its sound
- * to the socket.
- *
- * This class' main purpose is to reconnect whenever a socket
- * closes.
- */
-public class Peer extends Thread {
-    private IConnectable mConnectable = null;
-    private BluetoothSocket mSocket = null;
-    private boolean mStopped = false;
-    private Device mRemoteDevice = null;
-    private boolean mError = false;
-    private RecordThread mRecordThread = null;
-    private boolean mAskNewSocket;
-    private IConnectNotifiable mConnectNotifiable = null;
-    private final Lock mLock = new ReentrantLock();
-    private final Condition mErrorOrStopCondition = mLock.newCondition();
-
-    /**
-     * Constructor
-     * @param recordThread - the thread that is recording from the local microphone
-     * @param connectable - the object that returns a socket every time a disconnection occurs
-     * @param connectNotifiable - the object whose methods are called whenever a connection
-     *             or disconnection occurs
-     * @param remoteDevice - the bluetooth device from the other side of the connection
-     * @param socket - the socket to connect to
-     * @param askNewSocket - When the local device is the server it cannot request for
-     *             new sockets. It can only wait for the remote peer to connect again.
-     *             Therefore, this parameter needs to be passed as false in this case.
-     *             When the peer is a client, pass true in this parameter.
-     */
-    public Peer(RecordThread recordThread,
-                IConnectable connectable,
-                IConnectNotifiable connectNotifiable,
-                Device remoteDevice,
-                BluetoothSocket socket,
-                boolean askNewSocket) {
-        mConnectable = connectable;
-        mRemoteDevice = remoteDevice;
-        mSocket = socket;
-        mRecordThread = recordThread;
-        mAskNewSocket = askNewSocket;
-        mConnectNotifiable = connectNotifiable;
-    }
-
-    public String getRemoteDeviceName() {
-        return mRemoteDevice.getName();
-    }
-
-    public Device getRemoteDevice() {
-        return mRemoteDevice;
-    }
-
-    /**
-     * Stop this thread
-     */
-    public void exit() {
-        try {
-            mRemoteDevice = null;
-
-            mLock.lock();
-            mStopped = true;
-            mErrorOrStopCondition.signal();
-            mLock.unlock();
-        } catch (Exception e) {
-        	Log.e(Common.TAG, e.getMessage());
-        }
-    }
-
-    /**
-     * This method is called when the communication with the socket failed.
-     * As a result the thread will try to reconnect.
-     */
-    public void communicationErrorOccured() {
-        mLock.lock();
-        mError = true;
-        mErrorOrStopCondition.signal();
-        mLock.unlock();
-    }
-
-    /**
-     * The thread loops indefinitely. After the socket channel disconnects,
-     * it tries to reconnect it.
-     */
-    @Override
-    public void run() {
-        while (!mStopped) {
-            // The channel is disconnected
-            try {
-                if (mAskNewSocket)
-                	// Connect again
-                    mSocket = mConnectable.getSocket(this, mRemoteDevice);
-            } catch (IOException ioe) { // Probably device is not in range
-                Log.e(Common.TAG, "Error getting the socket: " + ioe.getMessage());
-                try {
-                    sleep(Common.RECONNECT_TIMEOUT);
-                } catch (InterruptedException ie) {
-                	Log.e(Common.TAG, ie.getMessage());
-                }
-                continue;
-            } catch (Exception e) {
-                Log.e(Common.TAG, e.getMessage());
-                return;
-            }
-
-            if (mSocket == null) // This means I should not try to reconnect again (I am on a server)
-                return;
-
-            mError = false;
-            // Create the communication thread, the recorder and the track
-            Player player = Player.getNewPlayer();
-            CommunicationThread commThread = new CommunicationThread(player, mSocket, this);
-            commThread.start();
-            mRecordThread.addSendHandler(commThread);
-            // Connected ok. Report this
-            mConnectNotifiable.connected(this);
-
-            // Wait while a socket exception occurs or a stop command is given
-            while (!mStopped && !mError) {
-                mLock.lock();
-                try {
-                    mErrorOrStopCondition.await();
-                } catch (Exception e) {
-                	Log.e(Common.TAG, e.getMessage());
-                }
-                mLock.unlock();
-            }
-
-            // Delete the player and the communication thread
-            Player.deletePlayer(player);
-            mRecordThread.removeSendHandler(commThread);
-            commThread.cancel();
-            if (!mStopped) // It was a communication error
-                mConnectNotifiable.disconnected(this);
-
-            if (!mAskNewSocket)
-                return;  // The peer is on a server. Do not try to reconnect.
-                         // The remote device should reconnect to this server.
-        }
-    }
-
-}
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.motolky.communication.CommunicationThread;
+import com.motolky.communication.Device;
+import com.motolky.communication.IConnectNotifiable;
+import com.motolky.communication.IConnectable;
+import com.motolky.communication.ILink;
+import com.motolky.communication.LinkQuality;
+import com.motolky.communication.Packetizer;
+import com.motolky.communication.QualityController;
+import com.motolky.communication.ReceiverReport;
+import com.motolky.communication.SendQueue;
+import com.motolky.sound.Player;
+import com.motolky.sound.QualityLadder;
+import com.motolky.sound.RecordThread;
+
+/**
+ * The class that defines a communication peer. This class makes the
+ * abstraction between a bluetooth device that is listening for
+ * connections and one that is connecting.
+ *
+ * It basically gets an IConnectable object that gives it an open link.
+ * Moreover it gets a thread (aka recording thread) that is getting sound from the local microphone.
+ * It creates the player on which the received sound will be played.
+ * It creates a communication thread that receives data from the link
+ * and sends it to the player. Moreover, it passes the communication
+ * channel to the recording thread, such that the latter can send its sound
+ * to the link.
+ *
+ * This class' main purpose is to reconnect whenever a link
+ * closes.
+ *
+ * While connected, it looks at the link every Common.LINK_UPDATE_INTERVAL.
+ * It sends a receiver report to the peer about the sound received from it,
+ * and from the reports of the peer and from the send queue, it chooses the
+ * quality level of the sound and how much redundancy is sent on the link.
+ */
+public class Peer extends Thread {
+    private IConnectable mConnectable = null;
+    private ILink mLink = null;
+    private boolean mStopped = false;
+    private Device mRemoteDevice = null;
+    private boolean mError = false;
+    private RecordThread mRecordThread = null;
+    private boolean mAskNewSocket;
+    private IConnectNotifiable mConnectNotifiable = null;
+    private Player mPlayer = null;
+    private CommunicationThread mCommThread = null;
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mErrorOrStopCondition = mLock.newCondition();
+    private int mLastReceived = 0;
+    private int mLastLost = 0;
+    private QualityController mQualityController = null;
+    private LinkQuality mLinkQuality = null;
+    private final ReceiverReport mReport = new ReceiverReport();
+    private boolean mReportsStale = false;
+
+    /**
+     * Constructor
+     * @param recordThread - the thread that is recording from the local microphone
+     * @param connectable - the object that returns a link every time a disconnection occurs
+     * @param connectNotifiable - the object whose methods are called whenever a connection
+     *             or disconnection occurs
+     * @param remoteDevice - the bluetooth device from the other side of the connection
+     * @param link - the link to the remote device
+     * @param askNewSocket - When the local device is the server it cannot request for
+     *             new links. It can only wait for the remote peer to connect again.
+     *             Therefore, this parameter needs to be passed as false in this case.
+     *             When the peer is a client, pass true in this parameter.
+     */
+    public Peer(RecordThread recordThread,
+                IConnectable connectable,
+                IConnectNotifiable connectNotifiable,
+                Device remoteDevice,
+                ILink link,
+                boolean askNewSocket) {
+        mConnectable = connectable;
+        mRemoteDevice = remoteDevice;
+        mLink = link;
+        mRecordThread = recordThread;
+        mAskNewSocket = askNewSocket;
+        mConnectNotifiable = connectNotifiable;
+    }
+
+    public String getRemoteDeviceName() {
+        return mRemoteDevice.getName();
+    }
+
+    public Device getRemoteDevice() {
+        return mRemoteDevice;
+    }
+
+    /**
+     * @return the player of the current connection, or null if not connected.
+     *         It can be used to change the gain of this peer in the mix.
+     */
+    public Player getPlayer() {
+        return mPlayer;
+    }
+
+    /**
+     * @return the send queue of the current connection, or null if not connected.
+     *         It tells how well the link keeps up with the sound.
+     */
+    public SendQueue getSendQueue() {
+        CommunicationThread commThread = mCommThread;
+        return commThread == null ? null : commThread.getSendQueue();
+    }
+
+    /**
+     * @return the quality level of the sound sent to this peer
+     */
+    public int getQualityLevel() {
+        QualityController controller = mQualityController;
+        return controller == null ? QualityLadder.TOP_LEVEL : controller.getLevel();
+    }
+
+    /**
+     * @return what the peer reports about the sound it receives from us, or
+     *         null if not connected
+     */
+    public LinkQuality getLinkQuality() {
+        return mLinkQuality;
+    }
+
+    /**
+     * Stop this thread
+     */
+    public void exit() {
+        try {
+            mRemoteDevice = null;
+
+            mLock.lock();
+            mStopped = true;
+            mErrorOrStopCondition.signal();
+            mLock.unlock();
+        } catch (Exception e) {
+        	Logger.e(Common.TAG, e.getMessage());
+        }
+    }
+
+    /**
+     * This method is called when the communication on the link failed.
+     * As a result the thread will try to reconnect.
+     */
+    public void communicationErrorOccured() {
+        mLock.lock();
+        mError = true;
+        mErrorOrStopCondition.signal();
+        mLock.unlock();
+    }
+
+    /**
+     * The thread loops indefinitely. After the link disconnects,
+     * it tries to reconnect it.
+     */
+    @Override
+    public void run() {
+        while (!mStopped) {
+            // The channel is disconnected
+            try {
+                if (mAskNewSocket)
+                	// Connect again
+                    mLink = mConnectable.getLink(this, mRemoteDevice);
+            } catch (IOException ioe) { // Probably device is not in range
+                Logger.e(Common.TAG, "Error getting the link: " + ioe.getMessage());
+                try {
+                    sleep(Common.RECONNECT_TIMEOUT);
+                } catch (InterruptedException ie) {
+                	Logger.e(Common.TAG, ie.getMessage());
+                }
+                continue;
+            } catch (Exception e) {
+                Logger.e(Common.TAG, e.getMessage());
+                return;
+            }
+
+            if (mLink == null) // This means I should not try to reconnect again (I am on a server)
+                return;
+
+            mError = false;
+            // Create the communication thread, the recorder and the track
+            Player player = Player.getNewPlayer();
+            mPlayer = player;
+            CommunicationThread commThread = new CommunicationThread(player, mLink, this);
+            QualityLadder qualityLadder = mRecordThread.getSoundProcessor().getQualityLadder();
+            QualityController qualityController = new QualityController(QualityLadder.TOP_LEVEL);
+            qualityLadder.acquireLevel(qualityController.getLevel());
+            mQualityController = qualityController;
+            LinkQuality linkQuality = new LinkQuality();
+            player.setReportHandler(linkQuality);
+            mLinkQuality = linkQuality;
+            commThread.start();
+            mCommThread = commThread;
+            mRecordThread.addSendHandler(commThread);
+            // Connected ok. Report this
+            mConnectNotifiable.connected(this);
+
+            // Wait while a link exception occurs or a stop command is given
+            mLastReceived = 0;
+            mLastLost = 0;
+            mReportsStale = false;
+            while (!mStopped && !mError) {
+                mLock.lock();
+                try {
+                    mErrorOrStopCondition.await(Common.LINK_UPDATE_INTERVAL,
+                                                TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                	Logger.e(Common.TAG, e.getMessage());
+                }
+                mLock.unlock();
+                updateLink(player, commThread, qualityLadder, qualityController, linkQuality);
+            }
+
+            // Delete the player and the communication thread
+            mPlayer = null;
+            mCommThread = null;
+            Player.deletePlayer(player);
+            mRecordThread.removeSendHandler(commThread);
+            qualityLadder.releaseLevel(qualityController.getLevel());
+            mQualityController = null;
+            mLinkQuality = null;
+            commThread.cancel();
+            if (!mStopped) // It was a communication error
+                mConnectNotifiable.disconnected(this);
+
+            if (!mAskNewSocket)
+                return;  // The peer is on a server. Do not try to reconnect.
+                         // The remote device should reconnect to this server.
+        }
+    }
+
+    /**
+     * Sends a receiver report about the frames received since the last
+     * update. Then chooses the quality level and the redundancy depth of the
+     * link from the send queue and the loss the peer reports. Without recent
+     * reports, the loss of the received frames is used instead, as the link
+     * is likely to lose as much in both directions. The frames recovered from
+     * redundant copies are counted as lost, otherwise the redundancy would
+     * hide the loss that made it needed.
+     * @param player - the player of the frames received on the link
+     * @param commThread - the thread sending on the link
+     * @param qualityLadder - the levels the sound is encoded at
+     * @param qualityController - chooses the quality level of the link
+     * @param linkQuality - the reports received from the peer
+     */
+    private void updateLink(Player player, CommunicationThread commThread,
+                            QualityLadder qualityLadder, QualityController qualityController,
+                            LinkQuality linkQuality) {
+        int received = player.getReceivedFrames();
+        int lost = player.getLostFrames() + player.getRecoveredFrames();
+        int newReceived = received - mLastReceived;
+        int newLost = lost - mLastLost;
+        mLastReceived = received;
+        mLastLost = lost;
+        // Nothing received means no loss measured, maybe the other side is silent
+        float lossRate = 0;
+        if (newReceived + newLost > 0)
+            lossRate = (float)newLost / (newReceived + newLost);
+
+        if (Common.ENABLE_REPORTS) {
+            mReport.set(player.getHighestSequence(), lossRate, player.getJitter(),
+                        player.getBufferDepth(), linkQuality.getLastRemoteTimestamp(),
+                        linkQuality.getDelaySinceLastReport());
+            commThread.sendReport(mReport);
+        }
+
+        boolean stale = linkQuality.isStale();
+        if (stale && !mReportsStale && linkQuality.getReportsReceived() > 0)
+            Logger.e(Common.TAG, "No receiver report from the peer for " +
+                  linkQuality.getLastReportAge() + " miliseconds");
+        mReportsStale = stale;
+        boolean measured = newReceived + newLost > 0;
+        if (!stale) {
+            lossRate = linkQuality.getLossRate();
+            measured = true;
+        }
+
+        if (Common.ENABLE_ADAPTIVE_QUALITY) {
+            int oldLevel = qualityController.getLevel();
+            int level = qualityController.update(commThread.getSendQueue(), lossRate,
+                                                 Common.LINK_UPDATE_INTERVAL);
+            if (level != oldLevel) {
+                // Start encoding at the new level before the link switches to it
+                qualityLadder.acquireLevel(level);
+                commThread.setQualityLevel(level);
+                qualityLadder.releaseLevel(oldLevel);
+                Logger.d(Common.TAG, "The quality level of the link changed to " + level);
+            }
+        }
+        if (Common.ENABLE_REDUNDANCY && measured)
+            commThread.setRedundancyDepth(Packetizer.getRedundancyDepth(lossRate));
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+
+/**
+ * An interface for an open communication channel with a remote device.
+ * It hides whether the channel is a bluetooth socket, a TCP connection or
+ * something else.
+ */
+public interface ILink {
+    /**
+     * Blocks until some data is received
+     * @param buffer - where to put the data
+     * @param offset - where to start writing in the buffer
+     * @param length - the maximum number of bytes to receive
+     * @return the number of bytes received, or -1 if the link was closed
+     * @throws IOException
+     */
+    public int receive(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Sends data on the link
+     * @param buffer - where the data is
+     * @param offset - where the data starts in the buffer
+     * @param length - how many bytes to send
+     * @throws IOException
+     */
+    public void send(byte[] buffer, int offset, int length) throws IOException;
+
+    public void close() throws IOException;
+
+    /**
+     * @return a name for the kind of link, like "RFCOMM" or "TCP"
+     */
+    public String getTransportName();
+
+    /**
+     * @return the address of the remote device
+     */
+    public String getRemoteAddress();
+
+    /**
+     * @return true if the data sent on the link always arrives, in order
+     */
+    public boolean isReliable();
+}
@@ -0,0 +1,154 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import com.motolky.Common;
+import com.motolky.sound.Frame;
+
+/**
+ * This class keeps what a peer tells about the sound it receives from us,
+ * from the receiver reports it sends on the link. It is used by the sender
+ * to choose the quality and the redundancy of the sound, and it can be
+ * shown to the user.
+ *
+ * The round trip time is computed from the timestamp of our last report
+ * that the peer echoes, and is smoothed like the one of TCP. When no
+ * report arrived for a few report intervals, the model is stale: the peer
+ * is not hearing us, or it does not send reports at all.
+ *
+ * The reports are received on the thread of the link and read from other
+ * threads, so all the methods are synchronized.
+ */
+public class LinkQuality implements IReportHandler {
+    private static final int STALE_INTERVALS = 3;
+
+    private final ReceiverReport mReport = new ReceiverReport();
+    private int mReports = 0;
+    private int mLastReportTime = 0;       // Local time of the last report
+    private int mLastRemoteTimestamp = 0;  // Its timestamp, on the peer's clock
+    private int mRoundTripTime = -1;
+
+    /**
+     * Called when a report arrives from the peer
+     * @param frame - the frame with the report
+     */
+    @Override
+    public synchronized void reportReceived(Frame frame) {
+        if (!mReport.read(frame))
+            return;
+
+        int now = ReceiverReport.currentTime();
+        mReports++;
+        mLastReportTime = now;
+        mLastRemoteTimestamp = frame.getTimestamp();
+
+        if (mReport.getLastReportTimestamp() != 0) {
+            int rtt = now - mReport.getLastReportTimestamp() - mReport.getDelaySinceLastReport();
+            if (rtt >= 0)
+                mRoundTripTime = mRoundTripTime < 0 ? rtt : (7 * mRoundTripTime + rtt) / 8;
+        }
+    }
+
+    /**
+     * @return the number of reports received from the peer
+     */
+    public synchronized int getReportsReceived() {
+        return mReports;
+    }
+
+    /**
+     * @return true if no report was received for a few report intervals, or
+     *         if none was ever received
+     */
+    public synchronized boolean isStale() {
+        return mReports == 0 ||
+            ReceiverReport.currentTime() - mLastReportTime >
+                STALE_INTERVALS * Common.LINK_UPDATE_INTERVAL;
+    }
+
+    /**
+     * @return the miliseconds since the last report was received, or -1 if
+     *         none was received
+     */
+    public synchronized int getLastReportAge() {
+        return mReports == 0 ? -1 : ReceiverReport.currentTime() - mLastReportTime;
+    }
+
+    /**
+     * @return the fraction of our frames the peer lost in the last report
+     *         interval, between 0 and 1
+     */
+    public synchronized float getLossRate() {
+        return mReport.getLossRate();
+    }
+
+    /**
+     * @return the jitter of our frames, as seen by the peer, in miliseconds
+     */
+    public synchronized int getJitter() {
+        return mReport.getJitter();
+    }
+
+    /**
+     * @return the number of our frames in the jitter buffer of the peer
+     */
+    public synchronized int getBufferDepth() {
+        return mReport.getBufferDepth();
+    }
+
+    /**
+     * @return the highest sequence number the peer received from us
+     */
+    public synchronized int getHighestSequence() {
+        return mReport.getHighestSequence();
+    }
+
+    /**
+     * @return the smoothed round trip time in miliseconds, or -1 if it is
+     *         not known yet
+     */
+    public synchronized int getRoundTripTime() {
+        return mRoundTripTime;
+    }
+
+    /**
+     * @return the timestamp of the last report received, to echo it in
+     *         our next report, or 0 if none was received
+     */
+    public synchronized int getLastRemoteTimestamp() {
+        return mReports == 0 ? 0 : mLastRemoteTimestamp;
+    }
+
+    /**
+     * @return the miliseconds since the last report was received, to send
+     *         in our next report
+     */
+    public synchronized int getDelaySinceLastReport() {
+        return mReports == 0 ? 0 : ReceiverReport.currentTime() - mLastReportTime;
+    }
+}
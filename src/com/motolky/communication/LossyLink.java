@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+
+/**
+ * A link that wraps another one and impairs what is sent on it: it drops
+ * packets at random and delays them by a fixed and a random amount. With
+ * random delays the packets can also arrive out of order. It is meant for
+ * testing how the receiver handles a bad network.
+ */
+public class LossyLink implements ILink {
+    private final ILink mLink;
+    private final float mLossRate;
+    private final int mDelay;
+    private final int mJitter;
+    private final Random mRandom = new Random();
+    private final ScheduledExecutorService mScheduler;
+    private long mDropped = 0;
+
+    /**
+     * Constructor
+     * @param link - the link to impair
+     * @param lossRate - the probability of dropping a packet, between 0 and 1
+     * @param delay - how many miliseconds every packet is delayed
+     * @param jitter - a random extra delay of up to this many miliseconds
+     */
+    public LossyLink(ILink link, float lossRate, int delay, int jitter) {
+        mLink = link;
+        mLossRate = lossRate;
+        mDelay = delay;
+        mJitter = jitter;
+        mScheduler = (delay > 0 || jitter > 0)
+                ? Executors.newSingleThreadScheduledExecutor() : null;
+    }
+
+    @Override
+    public int receive(byte[] buffer, int offset, int length) throws IOException {
+        return mLink.receive(buffer, offset, length);
+    }
+
+    @Override
+    public synchronized void send(byte[] buffer, int offset, int length) throws IOException {
+        if (mRandom.nextFloat() < mLossRate) {
+            mDropped++;
+            return;
+        }
+        if (mScheduler == null) {
+            mLink.send(buffer, offset, length);
+            return;
+        }
+
+        // The caller reuses its buffer, so the packet is copied
+        final byte[] packet = new byte[length];
+        System.arraycopy(buffer, offset, packet, 0, length);
+        long delay = mDelay + (mJitter > 0 ? mRandom.nextInt(mJitter + 1) : 0);
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mLink.send(packet, 0, packet.length);
+                } catch (IOException ioe) {
+                    Logger.e(Common.TAG, "Error sending a delayed packet: " + ioe.getMessage());
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mScheduler != null)
+            mScheduler.shutdownNow();
+        mLink.close();
+    }
+
+    @Override
+    public String getTransportName() {
+        return mLink.getTransportName();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return mLink.getRemoteAddress();
+    }
+
+    @Override
+    public boolean isReliable() {
+        return false;
+    }
+
+    /**
+     * @return the link that is impaired
+     */
+    public ILink getLink() {
+        return mLink;
+    }
+
+    public synchronized long getDroppedPackets() {
+        return mDropped;
+    }
+}
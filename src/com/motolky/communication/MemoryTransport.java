@@ -0,0 +1,206 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A transport that connects two endpoints in the same process through
+ * memory buffers. It is meant for running the whole communication stack
+ * without any radio, for example for load tests.
+ *
+ * The transports are created in pairs. Connecting on one of them creates
+ * the link that is accepted on the other one.
+ */
+public class MemoryTransport implements ITransport {
+    private static final int PIPE_LEN = 64 * 1024;
+
+    private final BlockingQueue<ILink> mIncoming = new LinkedBlockingQueue<ILink>();
+    private final String mName;
+    private MemoryTransport mRemote = null;
+    private boolean mClosed = false;
+
+    private MemoryTransport(String name) {
+        mName = name;
+    }
+
+    /**
+     * Creates two transports connected to each other
+     * @param firstName - the address of the first endpoint
+     * @param secondName - the address of the second endpoint
+     * @return the two transports
+     */
+    public static MemoryTransport[] createPair(String firstName, String secondName) {
+        MemoryTransport first = new MemoryTransport(firstName);
+        MemoryTransport second = new MemoryTransport(secondName);
+        first.mRemote = second;
+        second.mRemote = first;
+        return new MemoryTransport[] { first, second };
+    }
+
+    @Override
+    public ILink connect() throws IOException {
+        Pipe toRemote = new Pipe(PIPE_LEN);
+        Pipe fromRemote = new Pipe(PIPE_LEN);
+        mRemote.mIncoming.add(new MemoryLink(toRemote, fromRemote, mName));
+        return new MemoryLink(fromRemote, toRemote, mRemote.mName);
+    }
+
+    @Override
+    public ILink accept() throws IOException {
+        try {
+            ILink link = mIncoming.take();
+            synchronized (this) {
+                if (mClosed)
+                    throw new IOException("The transport was closed");
+            }
+            return link;
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while accepting");
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        // Wake up the thread waiting in accept
+        mIncoming.add(new MemoryLink(new Pipe(1), new Pipe(1), mName));
+    }
+
+    /**
+     * A blocking byte queue between the two ends of a link
+     */
+    private static class Pipe {
+        private final byte[] mBuffer;
+        private int mFirst = 0;
+        private int mLength = 0;
+        private boolean mClosed = false;
+
+        Pipe(int len) {
+            mBuffer = new byte[len];
+        }
+
+        synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                while (mLength == 0 && !mClosed)
+                    wait();
+            } catch (InterruptedException ie) {
+                throw new IOException("Interrupted while receiving");
+            }
+            if (mLength == 0)
+                return -1;
+
+            int no = Math.min(length, mLength);
+            int firstPart = Math.min(no, mBuffer.length - mFirst);
+            System.arraycopy(mBuffer, mFirst, buffer, offset, firstPart);
+            System.arraycopy(mBuffer, 0, buffer, offset + firstPart, no - firstPart);
+            mFirst = (mFirst + no) % mBuffer.length;
+            mLength -= no;
+            notifyAll();
+            return no;
+        }
+
+        synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                try {
+                    while (mLength == mBuffer.length && !mClosed)
+                        wait();
+                } catch (InterruptedException ie) {
+                    throw new IOException("Interrupted while sending");
+                }
+                if (mClosed)
+                    throw new IOException("The link was closed");
+
+                int last = (mFirst + mLength) % mBuffer.length;
+                int no = Math.min(length, mBuffer.length - mLength);
+                int firstPart = Math.min(no, mBuffer.length - last);
+                System.arraycopy(buffer, offset, mBuffer, last, firstPart);
+                System.arraycopy(buffer, offset + firstPart, mBuffer, 0, no - firstPart);
+                mLength += no;
+                offset += no;
+                length -= no;
+                notifyAll();
+            }
+        }
+
+        synchronized void close() {
+            mClosed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * One end of a link in memory
+     */
+    private static class MemoryLink implements ILink {
+        private final Pipe mIn;
+        private final Pipe mOut;
+        private final String mRemoteAddress;
+
+        MemoryLink(Pipe in, Pipe out, String remoteAddress) {
+            mIn = in;
+            mOut = out;
+            mRemoteAddress = remoteAddress;
+        }
+
+        @Override
+        public int receive(byte[] buffer, int offset, int length) throws IOException {
+            return mIn.read(buffer, offset, length);
+        }
+
+        @Override
+        public void send(byte[] buffer, int offset, int length) throws IOException {
+            mOut.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+            mOut.close();
+        }
+
+        @Override
+        public String getTransportName() {
+            return "memory";
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return mRemoteAddress;
+        }
+
+        @Override
+        public boolean isReliable() {
+            return true;
+        }
+    }
+}
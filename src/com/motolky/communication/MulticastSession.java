@@ -0,0 +1,349 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+import com.motolky.sound.Player;
+
+/**
+ * A session in which every member sends its sound once to a multicast group,
+ * instead of once to every peer. The members are told apart by a random
+ * source id that is put in every datagram, and every member gets its own
+ * player.
+ *
+ * The members send heartbeats, so that a member that stops talking is still
+ * known, and a member that disappears is removed after a few missed heartbeats.
+ * The loopback of the multicast socket is on, so several sessions can run on
+ * the same host. The datagrams sent by the session itself are ignored.
+ *
+ * The session is a send handler, so it is added to the record thread like a
+ * communication thread. On a phone, the caller has to hold a multicast lock
+ * of the Wi-Fi manager, otherwise the datagrams of the group are filtered.
+ */
+public class MulticastSession extends Thread implements ISendHandler {
+    public static final String DEFAULT_GROUP = "239.255.77.77";
+    public static final int DEFAULT_PORT = 47077;
+
+    private static final byte MAGIC = 0x4D;
+    private static final byte TYPE_AUDIO = 1;
+    private static final byte TYPE_HEARTBEAT = 2;
+    private static final byte TYPE_BYE = 3;
+    private static final int HEADER_LEN = 6;
+    private static final int MAX_DATAGRAM_LEN = HEADER_LEN + Packetizer.MAX_PACKET_LEN;
+    static final int HEARTBEAT_INTERVAL = 1000;      // miliseconds
+    static final int MEMBER_TIMEOUT = 3 * HEARTBEAT_INTERVAL;
+    private static final int TTL = 1;
+
+    private final InetAddress mGroup;
+    private final int mPort;
+    private final int mSourceId;
+    private final MulticastSocket mSocket;
+    private final Packetizer mPacketizer;
+    private final SendQueue mSendQueue;
+    private final byte[] mSendBuffer = new byte[MAX_DATAGRAM_LEN];
+    private final DatagramPacket mSendPacket;
+    private final Map<Integer, Member> mMembers = new HashMap<Integer, Member>();
+    private IMemberNotifiable mMemberNotifiable = null;
+    private long mLastHeartbeat = 0;
+    private volatile boolean mExit = false;
+
+    private static class Member {
+        final Player player;
+        long lastSeen;
+
+        Member(Player player, long lastSeen) {
+            this.player = player;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    /**
+     * Constructor. Joins the group.
+     * @param group - the multicast address of the group
+     * @param port - the port of the group
+     * @param memberNotifiable - notified when members join or leave. Can be null.
+     * @throws IOException if the group cannot be joined
+     */
+    public MulticastSession(String group, int port,
+                            IMemberNotifiable memberNotifiable) throws IOException {
+        mGroup = InetAddress.getByName(group);
+        mPort = port;
+        mSourceId = new Random().nextInt();
+        mMemberNotifiable = memberNotifiable;
+
+        mSocket = new MulticastSocket(port);
+        mSocket.setTimeToLive(TTL);
+        // false means that the loopback is enabled
+        mSocket.setLoopbackMode(false);
+        mSocket.setSoTimeout(HEARTBEAT_INTERVAL);
+        mSocket.joinGroup(mGroup);
+
+        mSendPacket = new DatagramPacket(mSendBuffer, mSendBuffer.length, mGroup, mPort);
+        mSendQueue = new SendQueue(new ISendHandler() {
+            @Override
+            public void sendData(byte[] buffer, int bytes) {
+                send(TYPE_AUDIO, buffer, bytes);
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, Common.SEND_QUEUE_PACKETS, Common.MAX_SEND_LATENCY);
+        mPacketizer = new Packetizer(mSendQueue,
+                Common.FRAMES_PER_PACKET, Common.MAX_PACKET_DELAY);
+    }
+
+    public int getSourceId() {
+        return mSourceId;
+    }
+
+    /**
+     * @return the number of other members that are currently heard
+     */
+    public int getMemberCount() {
+        synchronized (mMembers) {
+            return mMembers.size();
+        }
+    }
+
+    public SendQueue getSendQueue() {
+        return mSendQueue;
+    }
+
+    /**
+     * Bundles the encoded frames in packets and queues them for the group
+     */
+    @Override
+    public void sendData(byte[] buffer, int bytes) {
+        mPacketizer.addFrames(buffer, bytes);
+    }
+
+    @Override
+    public void flush() {
+        mPacketizer.flush();
+    }
+
+    /**
+     * Leaves the group and removes the players of all the members. Waits
+     * for the receiving thread to end, so no player is created afterwards.
+     */
+    public void exit() {
+        synchronized (mMembers) {
+            mExit = true;
+        }
+        mSendQueue.exit();
+        send(TYPE_BYE, null, 0);
+        try {
+            mSocket.leaveGroup(mGroup);
+        } catch (IOException ioe) {
+            Logger.e(Common.TAG, "Error leaving the multicast group: " + ioe.getMessage());
+        }
+        // Closing the socket wakes up the receiving thread
+        mSocket.close();
+        if (Thread.currentThread() != this && isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException ie) {
+                Logger.e(Common.TAG, "Interrupted while leaving the multicast group");
+            }
+        }
+
+        List<Integer> left = new ArrayList<Integer>();
+        synchronized (mMembers) {
+            for (Map.Entry<Integer, Member> entry : mMembers.entrySet()) {
+                Player.deletePlayer(entry.getValue().player);
+                left.add(entry.getKey());
+            }
+            mMembers.clear();
+        }
+        for (Integer sourceId : left)
+            notifyLeft(sourceId);
+    }
+
+    /**
+     * Receives the datagrams of the group and sends the heartbeats
+     */
+    @Override
+    public void run() {
+        byte[] buffer = new byte[MAX_DATAGRAM_LEN];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+        mSendQueue.start();
+
+        while (!mExit) {
+            long now = System.currentTimeMillis();
+            if (now - mLastHeartbeat >= HEARTBEAT_INTERVAL) {
+                send(TYPE_HEARTBEAT, null, 0);
+                mLastHeartbeat = now;
+                expireMembers(now);
+            }
+
+            try {
+                packet.setLength(buffer.length);
+                mSocket.receive(packet);
+            } catch (SocketTimeoutException ste) {
+                continue;
+            } catch (IOException ioe) {
+                if (!mExit)
+                    Logger.e(Common.TAG, "Error receiving from the multicast group: " + ioe.getMessage());
+                break;
+            }
+
+            int length = packet.getLength();
+            if (length < HEADER_LEN || buffer[0] != MAGIC)
+                continue;
+            int sourceId = ((buffer[2] & 0xFF) << 24) | ((buffer[3] & 0xFF) << 16) |
+                           ((buffer[4] & 0xFF) << 8) | (buffer[5] & 0xFF);
+            if (sourceId == mSourceId)
+                continue;
+
+            if (buffer[1] == TYPE_BYE) {
+                removeMember(sourceId);
+                continue;
+            }
+
+            Player player = getPlayer(sourceId, System.currentTimeMillis());
+            if (player == null || buffer[1] != TYPE_AUDIO || length == HEADER_LEN)
+                continue;
+
+            // The player expects the frames at the start of the buffer
+            System.arraycopy(buffer, HEADER_LEN, buffer, 0, length - HEADER_LEN);
+            try {
+                player.receiveData(buffer, length - HEADER_LEN);
+            } catch (IOException ioe) {
+                Logger.e(Common.TAG, "Error playing the sound of member " + sourceId);
+            }
+        }
+    }
+
+    /**
+     * Returns the player of a member, adding the member if it is new
+     * @return the player, or null if the session is exiting
+     */
+    private Player getPlayer(int sourceId, long now) {
+        Player player;
+        synchronized (mMembers) {
+            // Checked under the lock, so exit() either sees the new member
+            // or the member is never added
+            if (mExit)
+                return null;
+            Member member = mMembers.get(sourceId);
+            if (member != null) {
+                member.lastSeen = now;
+                return member.player;
+            }
+            player = Player.getNewPlayer();
+            mMembers.put(sourceId, new Member(player, now));
+        }
+
+        Logger.d(Common.TAG, "Member " + sourceId + " joined the multicast group.");
+        if (mMemberNotifiable != null)
+            mMemberNotifiable.memberJoined(sourceId, player);
+        return player;
+    }
+
+    private void removeMember(int sourceId) {
+        Member member;
+        synchronized (mMembers) {
+            member = mMembers.remove(sourceId);
+        }
+        if (member == null)
+            return;
+        Player.deletePlayer(member.player);
+        notifyLeft(sourceId);
+    }
+
+    /**
+     * Removes the members that did not send anything for a while
+     */
+    private void expireMembers(long now) {
+        List<Integer> left = new ArrayList<Integer>();
+        synchronized (mMembers) {
+            Iterator<Map.Entry<Integer, Member>> it = mMembers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Member> entry = it.next();
+                if (now - entry.getValue().lastSeen > MEMBER_TIMEOUT) {
+                    Player.deletePlayer(entry.getValue().player);
+                    left.add(entry.getKey());
+                    it.remove();
+                }
+            }
+        }
+        for (Integer sourceId : left)
+            notifyLeft(sourceId);
+    }
+
+    private void notifyLeft(int sourceId) {
+        Logger.d(Common.TAG, "Member " + sourceId + " left the multicast group.");
+        if (mMemberNotifiable != null)
+            mMemberNotifiable.memberLeft(sourceId);
+    }
+
+    /**
+     * Sends a datagram to the group
+     * @param type - the type of the datagram
+     * @param data - the packet to send after the header, or null
+     * @param bytes - the number of bytes in data
+     */
+    private void send(byte type, byte[] data, int bytes) {
+        if (bytes > MAX_DATAGRAM_LEN - HEADER_LEN) {
+            Logger.e(Common.TAG, "Packet too large for the multicast group: " + bytes);
+            return;
+        }
+        synchronized (mSendBuffer) {
+            mSendBuffer[0] = MAGIC;
+            mSendBuffer[1] = type;
+            mSendBuffer[2] = (byte)(mSourceId >> 24);
+            mSendBuffer[3] = (byte)(mSourceId >> 16);
+            mSendBuffer[4] = (byte)(mSourceId >> 8);
+            mSendBuffer[5] = (byte)mSourceId;
+            if (data != null)
+                System.arraycopy(data, 0, mSendBuffer, HEADER_LEN, bytes);
+            mSendPacket.setLength(HEADER_LEN + bytes);
+            try {
+                mSocket.send(mSendPacket);
+            } catch (IOException ioe) {
+                if (!mExit)
+                    Logger.e(Common.TAG, "Error sending to the multicast group: " + ioe.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import com.motolky.sound.Frame;
+import com.motolky.sound.IClock;
+import com.motolky.sound.QualityLadder;
+
+/**
+ * This class bundles several encoded frames in a single packet, so that a
+ * link does one write for several frames instead of one write for every
+ * small frame. A packet is sent as soon as it holds the configured number of
+ * frames, or when its oldest frame would wait longer than the configured
+ * delay for the next frames. The frames come in blocks at a steady pace, so
+ * the time until the next block is taken from the time between the last two.
+ *
+ * The frames keep their headers, so the receiver does not need to know how
+ * many frames were bundled in a packet.
+ *
+ * A frame may come encoded at several levels of quality. Only the copy at
+ * the level of the link is sent, or the closest one below it if the sound
+ * is not encoded at that level yet.
+ *
+ * The redundant copies of the frames are not sent with their frames. With a
+ * redundancy depth of N, a packet also carries the copies of the frames sent
+ * in the N packets before it, so a lost packet can be recovered from the
+ * ones after it. With a depth of 0 the copies are dropped.
+ */
+public class Packetizer {
+    public static final int MAX_FRAMES_PER_PACKET = 8;
+    public static final int MAX_PACKET_LEN =
+        MAX_FRAMES_PER_PACKET * (Frame.HEADER_LEN + Frame.MAX_PAYLOAD_LEN);
+    public static final int MAX_REDUNDANCY_DEPTH = 3;
+    private static final int HISTORY_LEN = 2 * MAX_REDUNDANCY_DEPTH * MAX_FRAMES_PER_PACKET;
+
+    private final ISendHandler mSender;
+    private final IClock mClock;
+    private final byte[] mPacket = new byte[MAX_PACKET_LEN];
+    private int mLength = 0;
+    private int mFrames = 0;
+    private long mOldestTime = 0;
+    private long mLastAddTime = 0;
+    private long mAddInterval = 0;      // The time between two calls of addFrames
+    private int mFramesPerPacket;
+    private int mMaxDelay;
+
+    private int mLevel = QualityLadder.TOP_LEVEL;
+    private int mRedundancyDepth = 0;
+    private int mPacketNumber = 0;        // The number of the packet being filled
+    private int mLastPrimaryPacket = 0;   // The packet of the last frame added
+    private final byte[][] mHistory = new byte[HISTORY_LEN][];
+    private final int[] mHistoryLen = new int[HISTORY_LEN];
+    private final int[] mHistoryPacket = new int[HISTORY_LEN];
+    private int mHistoryNext = 0;
+
+    /**
+     * Constructor
+     * @param sender - where the packets are sent
+     * @param framesPerPacket - how many frames to put in a packet
+     * @param maxDelay - how many miliseconds a frame can wait to be sent
+     */
+    public Packetizer(ISendHandler sender, int framesPerPacket, int maxDelay) {
+        this(sender, framesPerPacket, maxDelay, IClock.SYSTEM);
+    }
+
+    /**
+     * Constructor
+     * @param sender - where the packets are sent
+     * @param framesPerPacket - how many frames to put in a packet
+     * @param maxDelay - how many miliseconds a frame can wait to be sent
+     * @param clock - the clock the waiting time of the frames is measured with
+     */
+    public Packetizer(ISendHandler sender, int framesPerPacket, int maxDelay, IClock clock) {
+        mSender = sender;
+        mClock = clock;
+        setPacketization(framesPerPacket, maxDelay);
+    }
+
+    /**
+     * Changes how the frames are bundled
+     * @param framesPerPacket - between 1 and MAX_FRAMES_PER_PACKET
+     * @param maxDelay - how many miliseconds a frame can wait to be sent
+     */
+    public synchronized void setPacketization(int framesPerPacket, int maxDelay) {
+        mFramesPerPacket = Math.max(1, Math.min(framesPerPacket, MAX_FRAMES_PER_PACKET));
+        mMaxDelay = maxDelay;
+        if (mFrames >= mFramesPerPacket)
+            flush();
+    }
+
+    public synchronized int getFramesPerPacket() {
+        return mFramesPerPacket;
+    }
+
+    /**
+     * Sets the quality level of the frames sent
+     * @param level - between 0 and QualityLadder.TOP_LEVEL
+     */
+    public synchronized void setLevel(int level) {
+        mLevel = Math.max(0, Math.min(level, QualityLadder.TOP_LEVEL));
+    }
+
+    public synchronized int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Sets in how many packets after its frame a redundant copy is sent
+     * @param depth - between 0 and MAX_REDUNDANCY_DEPTH. 0 sends no copies.
+     */
+    public synchronized void setRedundancyDepth(int depth) {
+        mRedundancyDepth = Math.max(0, Math.min(depth, MAX_REDUNDANCY_DEPTH));
+    }
+
+    public synchronized int getRedundancyDepth() {
+        return mRedundancyDepth;
+    }
+
+    /**
+     * Chooses a redundancy depth for a link
+     * @param lossRate - the fraction of the frames lost on the link
+     * @return the depth that covers that loss
+     */
+    public static int getRedundancyDepth(float lossRate) {
+        if (lossRate < 0.01f)
+            return 0;
+        if (lossRate < 0.05f)
+            return 1;
+        if (lossRate < 0.15f)
+            return 2;
+        return MAX_REDUNDANCY_DEPTH;
+    }
+
+    /**
+     * Adds encoded frames to the packet. If the packet is complete, it is sent.
+     * @param data - one or more complete frames
+     * @param bytes - the number of bytes in data
+     */
+    public synchronized void addFrames(byte[] data, int bytes) {
+        long now = mClock.nanoTime() / 1000000;
+        if (mLastAddTime != 0)
+            mAddInterval = now - mLastAddTime;
+        mLastAddTime = now;
+
+        int offset = 0;
+        int chosen = -1;    // The best copy of the current frame
+        int chosenLen = 0;
+        while (offset + Frame.HEADER_LEN <= bytes) {
+            int len = Frame.HEADER_LEN + Frame.readLength(data, offset);
+            if (offset + len > bytes)
+                break;
+
+            boolean redundant = (Frame.readFlags(data, offset) & Frame.FLAG_REDUNDANT) != 0;
+            if (chosen >= 0 && (redundant ||
+                    Frame.readSequence(data, offset) != Frame.readSequence(data, chosen))) {
+                // All the copies of the current frame were seen
+                addFrame(data, chosen, chosenLen, now);
+                chosen = -1;
+            }
+
+            if (redundant) {
+                keepRedundantFrame(data, offset, len);
+            } else if (chosen < 0 || getLevelDistance(Frame.readLevel(data, offset)) <
+                                     getLevelDistance(Frame.readLevel(data, chosen))) {
+                chosen = offset;
+                chosenLen = len;
+            }
+            offset += len;
+        }
+        if (chosen >= 0)
+            addFrame(data, chosen, chosenLen, now);
+
+        // Do not wait for the next frames if they would come too late
+        if (mFrames > 0 && now - mOldestTime + mAddInterval > mMaxDelay)
+            flush();
+    }
+
+    /**
+     * Sends the frames that are waiting, if any, together with the
+     * redundant copies of the frames sent before them
+     */
+    public synchronized void flush() {
+        if (mLength == 0)
+            return;
+        addRedundantFrames();
+        mSender.sendData(mPacket, mLength);
+        mLength = 0;
+        mFrames = 0;
+        mPacketNumber++;
+    }
+
+    /**
+     * Adds a frame to the packet, and sends the packet if it is complete.
+     * If the frames waiting already reached the delay, they are sent
+     * before the new frame is added.
+     * @param now - the current time in miliseconds
+     */
+    private void addFrame(byte[] data, int offset, int len, long now) {
+        if (mLength + len > mPacket.length ||
+                (mFrames > 0 && now - mOldestTime >= mMaxDelay))
+            flush();
+
+        if (mFrames == 0)
+            mOldestTime = now;
+        System.arraycopy(data, offset, mPacket, mLength, len);
+        mLength += len;
+        mFrames++;
+        mLastPrimaryPacket = mPacketNumber;
+
+        if (mFrames >= mFramesPerPacket)
+            flush();
+    }
+
+    /**
+     * @return how far a level is from the level of the link. The levels
+     *         above it are farther than all the levels below it.
+     */
+    private int getLevelDistance(int level) {
+        if (level <= mLevel)
+            return mLevel - level;
+        return QualityLadder.LEVELS + level - mLevel;
+    }
+
+    /**
+     * Keeps the redundant copy of the last frame added, until the packets
+     * after the one of its frame are sent
+     */
+    private void keepRedundantFrame(byte[] data, int offset, int len) {
+        if (mRedundancyDepth == 0)
+            return;
+
+        int index = mHistoryNext;
+        mHistoryNext = (mHistoryNext + 1) % HISTORY_LEN;
+        if (mHistory[index] == null || mHistory[index].length < len)
+            mHistory[index] = new byte[Frame.HEADER_LEN + Frame.MAX_PAYLOAD_LEN];
+        System.arraycopy(data, offset, mHistory[index], 0, len);
+        mHistoryLen[index] = len;
+        mHistoryPacket[index] = mLastPrimaryPacket;
+    }
+
+    /**
+     * Appends to the packet the redundant copies of the frames sent in the
+     * last mRedundancyDepth packets, oldest first, as long as they fit
+     */
+    private void addRedundantFrames() {
+        if (mRedundancyDepth == 0)
+            return;
+
+        for (int i = 0; i < HISTORY_LEN; i++) {
+            int index = (mHistoryNext + i) % HISTORY_LEN;
+            int age = mPacketNumber - mHistoryPacket[index];
+            if (mHistoryLen[index] == 0 || age <= 0 || age > mRedundancyDepth)
+                continue;
+            if (mLength + mHistoryLen[index] > mPacket.length)
+                break;
+            System.arraycopy(mHistory[index], 0, mPacket, mLength, mHistoryLen[index]);
+            mLength += mHistoryLen[index];
+        }
+    }
+
+}
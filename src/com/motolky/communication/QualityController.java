@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import com.motolky.Common;
+import com.motolky.sound.QualityLadder;
+
+/**
+ * This class chooses the quality level of the sound sent on one link.
+ * It is updated at regular intervals with the state of the send queue of
+ * the link and with the fraction of the frames lost on it.
+ *
+ * The link is congested if the send queue dropped packets, if it grew or
+ * stays deep, if the writes blocked for a large part of the interval, or
+ * if too many frames were lost. A congested interval moves the level one
+ * step down right away. The level only goes one step up after a number of
+ * intervals without congestion. If the link is congested right after going
+ * up, the number of intervals to wait doubles, so a link that can not
+ * carry a level does not keep trying it.
+ */
+public class QualityController {
+    private static final int DEEP_QUEUE = Common.SEND_QUEUE_PACKETS / 4;
+    private static final float MAX_LOSS_RATE = 0.1f;
+    private static final int MIN_GOOD_INTERVALS = 5;
+    private static final int MAX_GOOD_INTERVALS = 60;
+
+    private int mLevel;
+    private int mGoodIntervals = 0;
+    private int mNeededGoodIntervals = MIN_GOOD_INTERVALS;
+    private boolean mJustWentUp = false;
+
+    private int mLastDepth = 0;
+    private long mLastDropped = 0;
+    private long mLastStallTime = 0;
+
+    /**
+     * Constructor
+     * @param level - the level to start at
+     */
+    public QualityController(int level) {
+        mLevel = level;
+    }
+
+    /**
+     * @return the current level, between 0 and QualityLadder.TOP_LEVEL
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Looks at the link after an interval and chooses the new level
+     * @param queue - the send queue of the link
+     * @param lossRate - the fraction of the frames lost in the interval
+     * @param interval - the length of the interval in miliseconds
+     * @return the new level
+     */
+    public int update(SendQueue queue, float lossRate, int interval) {
+        int depth = queue.getDepth();
+        long dropped = queue.getDroppedPackets();
+        long stallTime = queue.getStallTime();
+
+        boolean congested = dropped > mLastDropped ||
+                            depth > mLastDepth + 1 ||
+                            depth >= DEEP_QUEUE ||
+                            stallTime - mLastStallTime > interval / 2 ||
+                            lossRate > MAX_LOSS_RATE;
+        mLastDepth = depth;
+        mLastDropped = dropped;
+        mLastStallTime = stallTime;
+
+        if (congested) {
+            if (mJustWentUp)
+                mNeededGoodIntervals = Math.min(2 * mNeededGoodIntervals, MAX_GOOD_INTERVALS);
+            mJustWentUp = false;
+            mGoodIntervals = 0;
+            if (mLevel > 0)
+                mLevel--;
+            return mLevel;
+        }
+
+        mJustWentUp = false;
+        if (mLevel == QualityLadder.TOP_LEVEL) {
+            mNeededGoodIntervals = MIN_GOOD_INTERVALS;
+            return mLevel;
+        }
+        if (++mGoodIntervals >= mNeededGoodIntervals) {
+            mGoodIntervals = 0;
+            mLevel++;
+            mJustWentUp = true;
+        }
+        return mLevel;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import com.motolky.sound.Frame;
+
+/**
+ * A receiver report, like the ones of RTCP. Every peer sends one on each
+ * link about every second, to tell the other side how well it receives
+ * its sound. It travels as a frame with Frame.FLAG_REPORT, whose timestamp
+ * is the time the report was sent, in miliseconds of the sender's clock.
+ * The payload is:
+ *
+ *   bytes 0-1   - the highest sequence number received
+ *   byte  2     - the fraction of the frames lost since the last report,
+ *                 in 1/256 units
+ *   byte  3     - reserved, always 0
+ *   bytes 4-5   - the interarrival jitter in miliseconds
+ *   bytes 6-7   - the depth of the jitter buffer in frames
+ *   bytes 8-11  - the timestamp of the last report received from the other
+ *                 side, or 0 if none was received
+ *   bytes 12-15 - the miliseconds between receiving that report and
+ *                 sending this one
+ *
+ * The last two fields let the other side compute the round trip time
+ * without synchronized clocks. All the fields are big endian.
+ */
+public class ReceiverReport {
+    public static final int PAYLOAD_LEN = 16;
+    public static final int REPORT_LEN = Frame.HEADER_LEN + PAYLOAD_LEN;
+
+    private int mHighestSequence = 0;
+    private int mLossFraction = 0;
+    private int mJitter = 0;
+    private int mBufferDepth = 0;
+    private int mLastReportTimestamp = 0;
+    private int mDelaySinceLastReport = 0;
+
+    /**
+     * @return the clock of the report timestamps, in miliseconds. It is
+     *         only meaningful on the device that reads it.
+     */
+    public static int currentTime() {
+        return (int)(System.nanoTime() / 1000000);
+    }
+
+    /**
+     * Changes all the fields of the report
+     * @param highestSequence - the highest sequence number received
+     * @param lossRate - the fraction of the frames lost, between 0 and 1
+     * @param jitter - the interarrival jitter in miliseconds
+     * @param bufferDepth - the depth of the jitter buffer in frames
+     * @param lastReportTimestamp - the timestamp of the last report received
+     * @param delaySinceLastReport - the miliseconds since that report was received
+     */
+    public void set(int highestSequence, float lossRate, int jitter, int bufferDepth,
+                    int lastReportTimestamp, int delaySinceLastReport) {
+        mHighestSequence = highestSequence;
+        mLossFraction = Math.max(0, Math.min((int)(lossRate * 256), 255));
+        mJitter = Math.min(jitter, 0xFFFF);
+        mBufferDepth = Math.min(bufferDepth, 0xFFFF);
+        mLastReportTimestamp = lastReportTimestamp;
+        mDelaySinceLastReport = delaySinceLastReport;
+    }
+
+    public int getHighestSequence() {
+        return mHighestSequence;
+    }
+
+    /**
+     * @return the fraction of the frames lost, between 0 and 1
+     */
+    public float getLossRate() {
+        return mLossFraction / 256f;
+    }
+
+    public int getJitter() {
+        return mJitter;
+    }
+
+    public int getBufferDepth() {
+        return mBufferDepth;
+    }
+
+    public int getLastReportTimestamp() {
+        return mLastReportTimestamp;
+    }
+
+    public int getDelaySinceLastReport() {
+        return mDelaySinceLastReport;
+    }
+
+    /**
+     * Writes the report as a frame
+     * @param buffer - where to write the frame. It needs REPORT_LEN bytes.
+     * @param offset - where the frame starts in the buffer
+     * @param timestamp - the time the report is sent, in miliseconds
+     * @return the number of bytes written
+     */
+    public int write(byte[] buffer, int offset, int timestamp) {
+        Frame.writeHeader(buffer, offset, PAYLOAD_LEN, 0, timestamp, Frame.FLAG_REPORT);
+        int i = offset + Frame.HEADER_LEN;
+        writeShort(buffer, i, mHighestSequence);
+        buffer[i + 2] = (byte)mLossFraction;
+        buffer[i + 3] = 0;
+        writeShort(buffer, i + 4, mJitter);
+        writeShort(buffer, i + 6, mBufferDepth);
+        writeInt(buffer, i + 8, mLastReportTimestamp);
+        writeInt(buffer, i + 12, mDelaySinceLastReport);
+        return REPORT_LEN;
+    }
+
+    /**
+     * Reads the report from a received frame
+     * @param frame - a frame with Frame.FLAG_REPORT
+     * @return false if the frame is too short to be a report
+     */
+    public boolean read(Frame frame) {
+        if (frame.getLength() < PAYLOAD_LEN)
+            return false;
+        byte[] data = frame.getData();
+        mHighestSequence = readShort(data, 0);
+        mLossFraction = data[2] & 0xFF;
+        mJitter = readShort(data, 4);
+        mBufferDepth = readShort(data, 6);
+        mLastReportTimestamp = readInt(data, 8);
+        mDelaySinceLastReport = readInt(data, 12);
+        return true;
+    }
+
+    private static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >> 8);
+        buffer[offset + 1] = (byte)value;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        writeShort(buffer, offset, value >> 16);
+        writeShort(buffer, offset + 2, value);
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (readShort(buffer, offset) << 16) | readShort(buffer, offset + 2);
+    }
+}
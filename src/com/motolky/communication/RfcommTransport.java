@@ -0,0 +1,100 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import com.motolky.Common;
+
+/**
+ * A transport over bluetooth RFCOMM sockets. The connection to a device
+ * is identified by the UUID of the device.
+ */
+public class RfcommTransport implements ITransport {
+    private final BluetoothAdapter mBtAdapter;
+    private final Device mDevice;
+    private BluetoothServerSocket mServerSocket = null;
+    private boolean mClosed = false;
+
+    /**
+     * Constructor
+     * @param bluetoothAdapter - the local bluetooth adapter
+     * @param device - the remote device. Its UUID has to be set.
+     */
+    public RfcommTransport(BluetoothAdapter bluetoothAdapter, Device device) {
+        mBtAdapter = bluetoothAdapter;
+        mDevice = device;
+    }
+
+    @Override
+    public ILink connect() throws IOException {
+        BluetoothSocket socket = mDevice.getBluetoothDevice().
+                                createRfcommSocketToServiceRecord(mDevice.getUUID());
+        socket.connect();
+        return createLink(socket);
+    }
+
+    @Override
+    public ILink accept() throws IOException {
+        BluetoothServerSocket serverSocket;
+        synchronized (this) {
+            if (mClosed)
+                throw new IOException("The transport was closed");
+            mServerSocket = mBtAdapter.listenUsingRfcommWithServiceRecord(
+                    mBtAdapter.getName(), mDevice.getUUID());
+            serverSocket = mServerSocket;
+        }
+
+        try {
+            return createLink(serverSocket.accept());
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        try {
+            if (mServerSocket != null)
+                mServerSocket.close();
+        } catch (IOException ioe) {
+            Log.d(Common.TAG, "Failed to close the server socket.");
+        }
+    }
+
+    private ILink createLink(BluetoothSocket socket) throws IOException {
+        return new StreamLink(socket.getInputStream(), socket.getOutputStream(),
+                socket, "RFCOMM", mDevice.getBluetoothDevice().getAddress());
+    }
+}
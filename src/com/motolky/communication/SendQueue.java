@@ -0,0 +1,279 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+import com.motolky.sound.IClock;
+
+/**
+ * A bounded queue of packets with its own writer thread. The packets are
+ * added without ever blocking, so the thread that records and encodes the
+ * sound never waits for a slow link. The writer thread takes the packets
+ * out and passes them to the handler that does the blocking write.
+ *
+ * When the queue is full, or when its oldest packet waited for longer than
+ * the latency budget, the oldest packets are dropped. Late voice is worse
+ * than lost voice, and the jitter buffer of the receiver handles the gap.
+ */
+public class SendQueue extends Thread implements ISendHandler {
+    private final ISendHandler mWriter;
+    private final IClock mClock;
+    private final byte[][] mPackets;
+    private final int[] mLengths;
+    private final long[] mTimes;
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private int mFirst = 0;
+    private int mCount = 0;
+    private int mLatencyBudget;
+    private boolean mExit = false;
+
+    private long mDropped = 0;
+    private long mSent = 0;
+    private int mMaxDepth = 0;
+    private long mStallNanos = 0;
+    private long mMaxStallNanos = 0;
+
+    /**
+     * Constructor
+     * @param writer - the handler that writes the packets on the link
+     * @param capacity - the maximum number of packets in the queue
+     * @param latencyBudget - how many miliseconds a packet can wait in the queue
+     */
+    public SendQueue(ISendHandler writer, int capacity, int latencyBudget) {
+        this(writer, capacity, latencyBudget, IClock.SYSTEM);
+    }
+
+    /**
+     * Constructor
+     * @param writer - the handler that writes the packets on the link
+     * @param capacity - the maximum number of packets in the queue
+     * @param latencyBudget - how many miliseconds a packet can wait in the queue
+     * @param clock - the clock the waiting time of the packets is measured with
+     */
+    public SendQueue(ISendHandler writer, int capacity, int latencyBudget, IClock clock) {
+        mWriter = writer;
+        mClock = clock;
+        mPackets = new byte[capacity][];
+        mLengths = new int[capacity];
+        mTimes = new long[capacity];
+        mLatencyBudget = latencyBudget;
+    }
+
+    public void setLatencyBudget(int latencyBudget) {
+        mLock.lock();
+        mLatencyBudget = latencyBudget;
+        mLock.unlock();
+    }
+
+    /**
+     * Adds a packet to the queue. It never blocks.
+     * @param buffer - the packet. It is copied, so the buffer can be reused.
+     * @param bytes - the length of the packet
+     */
+    @Override
+    public void sendData(byte[] buffer, int bytes) {
+        long now = currentTimeMillis();
+        mLock.lock();
+        try {
+            if (mExit)
+                return;
+            dropLate(now);
+            if (mCount == mPackets.length)
+                dropOldest();
+
+            int last = (mFirst + mCount) % mPackets.length;
+            // The slots grow to the largest packet and are reused after that
+            if (mPackets[last] == null || mPackets[last].length < bytes)
+                mPackets[last] = new byte[bytes];
+            System.arraycopy(buffer, 0, mPackets[last], 0, bytes);
+            mLengths[last] = bytes;
+            mTimes[last] = now;
+            mCount++;
+            if (mCount > mMaxDepth)
+                mMaxDepth = mCount;
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Nothing to do. The packets are written as soon as possible anyway.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Stops the writer thread. The packets in the queue are dropped.
+     */
+    public void exit() {
+        mLock.lock();
+        mExit = true;
+        mCount = 0;
+        mNotEmpty.signal();
+        mLock.unlock();
+    }
+
+    /**
+     * @return the number of packets that wait to be written
+     */
+    public int getDepth() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getMaxDepth() {
+        mLock.lock();
+        try {
+            return mMaxDepth;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of packets dropped because the link was too slow
+     */
+    public long getDroppedPackets() {
+        mLock.lock();
+        try {
+            return mDropped;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getSentPackets() {
+        mLock.lock();
+        try {
+            return mSent;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the total time in miliseconds spent in blocking writes
+     */
+    public long getStallTime() {
+        mLock.lock();
+        try {
+            return mStallNanos / 1000000;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the longest blocking write, in miliseconds
+     */
+    public long getMaxStallTime() {
+        mLock.lock();
+        try {
+            return mMaxStallNanos / 1000000;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private long currentTimeMillis() {
+        return mClock.nanoTime() / 1000000;
+    }
+
+    /**
+     * Takes the packets out of the queue and writes them. Only one packet
+     * buffer is held outside the lock, so it is swapped with a spare one.
+     */
+    @Override
+    public void run() {
+        byte[] packet = new byte[0];
+
+        while (true) {
+            int bytes;
+            mLock.lock();
+            try {
+                while (mCount == 0 && !mExit)
+                    mNotEmpty.await();
+                if (mExit)
+                    break;
+                dropLate(currentTimeMillis());
+                if (mCount == 0)
+                    continue;
+
+                byte[] queued = mPackets[mFirst];
+                bytes = mLengths[mFirst];
+                mPackets[mFirst] = packet;
+                packet = queued;
+                mFirst = (mFirst + 1) % mPackets.length;
+                mCount--;
+            } catch (InterruptedException ie) {
+                Logger.e(Common.TAG, "The send queue was interrupted.");
+                break;
+            } finally {
+                mLock.unlock();
+            }
+
+            long start = System.nanoTime();
+            mWriter.sendData(packet, bytes);
+            long stall = System.nanoTime() - start;
+
+            mLock.lock();
+            mSent++;
+            mStallNanos += stall;
+            if (stall > mMaxStallNanos)
+                mMaxStallNanos = stall;
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the packets that waited longer than the latency budget.
+     * Has to be called with the lock held.
+     */
+    private void dropLate(long now) {
+        while (mCount > 0 && now - mTimes[mFirst] > mLatencyBudget)
+            dropOldest();
+    }
+
+    private void dropOldest() {
+        mFirst = (mFirst + 1) % mPackets.length;
+        mCount--;
+        mDropped++;
+    }
+}
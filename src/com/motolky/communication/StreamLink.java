@@ -0,0 +1,92 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A link over a pair of byte streams, like the ones of a bluetooth
+ * socket or of a TCP socket.
+ */
+public class StreamLink implements ILink {
+    private final InputStream mInputStream;
+    private final OutputStream mOutputStream;
+    private final Closeable mChannel;
+    private final String mTransportName;
+    private final String mRemoteAddress;
+
+    /**
+     * Constructor
+     * @param inputStream - where the data is received from
+     * @param outputStream - where the data is sent to
+     * @param channel - what to close when the link is closed
+     * @param transportName - the name of the kind of link
+     * @param remoteAddress - the address of the remote device
+     */
+    public StreamLink(InputStream inputStream, OutputStream outputStream,
+                      Closeable channel, String transportName, String remoteAddress) {
+        mInputStream = inputStream;
+        mOutputStream = outputStream;
+        mChannel = channel;
+        mTransportName = transportName;
+        mRemoteAddress = remoteAddress;
+    }
+
+    @Override
+    public int receive(byte[] buffer, int offset, int length) throws IOException {
+        return mInputStream.read(buffer, offset, length);
+    }
+
+    @Override
+    public void send(byte[] buffer, int offset, int length) throws IOException {
+        mOutputStream.write(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    @Override
+    public String getTransportName() {
+        return mTransportName;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return mRemoteAddress;
+    }
+
+    @Override
+    public boolean isReliable() {
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A transport over TCP connections. It can be used over Wi-Fi, or over
+ * the loopback interface for testing.
+ */
+public class TcpTransport implements ITransport {
+    private final String mHost;
+    private final int mPort;
+    private ServerSocket mServerSocket = null;
+    private boolean mClosed = false;
+
+    /**
+     * Constructor
+     * @param host - the host to connect to. It is not used for accepting connections.
+     * @param port - the port to connect to, or to listen on
+     */
+    public TcpTransport(String host, int port) {
+        mHost = host;
+        mPort = port;
+    }
+
+    @Override
+    public ILink connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(mHost, mPort));
+        return createLink(socket);
+    }
+
+    @Override
+    public ILink accept() throws IOException {
+        ServerSocket serverSocket;
+        synchronized (this) {
+            if (mClosed)
+                throw new IOException("The transport was closed");
+            if (mServerSocket == null) {
+                mServerSocket = new ServerSocket();
+                mServerSocket.setReuseAddress(true);
+                mServerSocket.bind(new InetSocketAddress(mPort));
+            }
+            serverSocket = mServerSocket;
+        }
+        return createLink(serverSocket.accept());
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        try {
+            if (mServerSocket != null)
+                mServerSocket.close();
+        } catch (IOException ioe) {}
+    }
+
+    private ILink createLink(Socket socket) throws IOException {
+        // The frames are small and have to leave right away
+        socket.setTcpNoDelay(true);
+        return new StreamLink(socket.getInputStream(), socket.getOutputStream(),
+                socket, "TCP", socket.getRemoteSocketAddress().toString());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+
+import com.motolky.sound.Frame;
+
+/**
+ * A link that sends every packet in its own datagram. A lost datagram
+ * does not delay the ones after it, so a late packet never holds back
+ * the voice. The packets contain complete frames, and the jitter buffer
+ * of the receiver reorders them and treats the late ones as lost.
+ *
+ * Every datagram starts with its type. The audio datagrams continue with
+ * a sequence number of the link, which is used for counting the lost and
+ * the reordered datagrams. When nothing was sent for a heartbeat interval,
+ * a heartbeat is sent instead, so the remote device knows the link is
+ * alive while nobody talks. The link fails with an IOException when
+ * nothing arrives for MAX_MISSED_HEARTBEATS intervals.
+ */
+public class UdpLink implements ILink {
+    public static final int HEADER_LEN = 3;
+    public static final int MAX_DATAGRAM_LEN = HEADER_LEN + Packetizer.MAX_PACKET_LEN;
+
+    static final byte TYPE_AUDIO = 0;
+    static final byte TYPE_HELLO = 1;
+    static final byte TYPE_HELLO_ACK = 2;
+    static final byte TYPE_HEARTBEAT = 3;
+    static final int HEARTBEAT_INTERVAL = 1000;  // miliseconds
+    static final int MAX_MISSED_HEARTBEATS = 5;
+
+    private final DatagramSocket mSocket;
+    private final UdpTransport mTransport;
+    private final byte[] mSendBuffer = new byte[MAX_DATAGRAM_LEN];
+    private final DatagramPacket mSendPacket;
+    private final byte[] mReceiveBuffer = new byte[MAX_DATAGRAM_LEN];
+    private final DatagramPacket mReceivePacket;
+    private int mSendSequence = 0;
+    private int mHighestSequence = -1;
+    private long mLastSend;
+    private long mLastReceive;
+    private long mReceived = 0;
+    private long mLost = 0;
+    private long mLate = 0;
+    private long mTruncated = 0;
+
+    /**
+     * Constructor. The handshake has to be done already.
+     * @param socket - a socket connected to the remote device
+     * @param transport - the transport to notify when the link closes. Can be null.
+     * @throws IOException if the timeout of the socket cannot be set
+     */
+    UdpLink(DatagramSocket socket, UdpTransport transport) throws IOException {
+        mSocket = socket;
+        mTransport = transport;
+        mSendPacket = new DatagramPacket(mSendBuffer, mSendBuffer.length);
+        mReceivePacket = new DatagramPacket(mReceiveBuffer, mReceiveBuffer.length);
+        mLastSend = System.currentTimeMillis();
+        mLastReceive = mLastSend;
+        mSocket.setSoTimeout(HEARTBEAT_INTERVAL);
+    }
+
+    /**
+     * Receives one audio datagram. Datagrams that do not fit in the buffer
+     * are dropped, because the frames in them could not be parsed anyway.
+     * Heartbeats are sent while waiting.
+     * @throws IOException if the remote device was not heard for
+     *             MAX_MISSED_HEARTBEATS heartbeat intervals
+     */
+    @Override
+    public int receive(byte[] buffer, int offset, int length) throws IOException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now - mLastReceive >= MAX_MISSED_HEARTBEATS * HEARTBEAT_INTERVAL)
+                throw new IOException("No datagram from " + getRemoteAddress() +
+                                      " for " + (now - mLastReceive) + " ms");
+            sendHeartbeat(now);
+
+            mReceivePacket.setLength(mReceiveBuffer.length);
+            try {
+                mSocket.receive(mReceivePacket);
+            } catch (SocketTimeoutException ste) {
+                continue;
+            }
+            mLastReceive = System.currentTimeMillis();
+
+            int len = mReceivePacket.getLength();
+            if (len < 1)
+                continue;
+            byte type = mReceiveBuffer[0];
+            if (type == TYPE_HELLO) {
+                // The acknowledgement of the handshake was lost
+                sendControl(TYPE_HELLO_ACK);
+                continue;
+            }
+            int bytes = len - HEADER_LEN;
+            if (type != TYPE_AUDIO || bytes < 0)
+                continue;
+            if (bytes > length) {
+                mTruncated++;
+                continue;
+            }
+
+            countSequence(((mReceiveBuffer[1] & 0xFF) << 8) | (mReceiveBuffer[2] & 0xFF));
+            System.arraycopy(mReceiveBuffer, HEADER_LEN, buffer, offset, bytes);
+            return bytes;
+        }
+    }
+
+    @Override
+    public synchronized void send(byte[] buffer, int offset, int length) throws IOException {
+        if (length > MAX_DATAGRAM_LEN - HEADER_LEN)
+            throw new IOException("Packet too large for a datagram: " + length);
+
+        mSendBuffer[0] = TYPE_AUDIO;
+        mSendBuffer[1] = (byte)(mSendSequence >> 8);
+        mSendBuffer[2] = (byte)mSendSequence;
+        mSendSequence = (mSendSequence + 1) % Frame.SEQUENCE_MOD;
+        System.arraycopy(buffer, offset, mSendBuffer, HEADER_LEN, length);
+        mSendPacket.setLength(HEADER_LEN + length);
+        mSocket.send(mSendPacket);
+        mLastSend = System.currentTimeMillis();
+    }
+
+    /**
+     * Sends a datagram that only has a type
+     * @param type - the type of the datagram
+     */
+    synchronized void sendControl(byte type) throws IOException {
+        sendControl(mSocket, type);
+        mLastSend = System.currentTimeMillis();
+    }
+
+    /**
+     * Sends a datagram that only has a type on a connected socket
+     * @param socket - the socket
+     * @param type - the type of the datagram
+     */
+    static void sendControl(DatagramSocket socket, byte type) throws IOException {
+        byte[] data = new byte[] { type };
+        socket.send(new DatagramPacket(data, data.length));
+    }
+
+    private synchronized void sendHeartbeat(long now) throws IOException {
+        if (now - mLastSend >= HEARTBEAT_INTERVAL)
+            sendControl(TYPE_HEARTBEAT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+        if (mTransport != null)
+            mTransport.linkClosed(this);
+    }
+
+    @Override
+    public String getTransportName() {
+        return "UDP";
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(mSocket.getRemoteSocketAddress());
+    }
+
+    @Override
+    public boolean isReliable() {
+        return false;
+    }
+
+    public synchronized long getReceivedDatagrams() {
+        return mReceived;
+    }
+
+    /**
+     * @return how many datagrams never arrived, judging by the gaps in the sequence
+     */
+    public synchronized long getLostDatagrams() {
+        return mLost;
+    }
+
+    /**
+     * @return how many datagrams arrived after a newer one
+     */
+    public synchronized long getLateDatagrams() {
+        return mLate;
+    }
+
+    public synchronized long getTruncatedDatagrams() {
+        return mTruncated;
+    }
+
+    private synchronized void countSequence(int sequence) {
+        mReceived++;
+        if (mHighestSequence < 0) {
+            mHighestSequence = sequence;
+            return;
+        }
+
+        int diff = Frame.sequenceDiff(sequence, mHighestSequence);
+        if (diff > 0) {
+            mLost += diff - 1;
+            mHighestSequence = sequence;
+        } else if (diff < 0) {
+            // It was counted as lost when the gap was seen
+            mLate++;
+            if (mLost > 0)
+                mLost--;
+        }
+    }
+}
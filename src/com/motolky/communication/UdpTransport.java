@@ -0,0 +1,197 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+
+/**
+ * A transport over UDP datagrams, for LAN and Wi-Fi groups. Connecting
+ * sends hellos until the remote device acknowledges one, and accepting
+ * waits for a hello and takes its sender as the remote device. The links
+ * then exchange heartbeats, see UdpLink.
+ * Only one link can be accepted at a time, because the accepted link uses
+ * the local port. The next accept waits for it to close.
+ *
+ * For testing, the links can be impaired with artificial loss and delay.
+ */
+public class UdpTransport implements ITransport {
+    private static final int HELLO_INTERVAL = 500;  // miliseconds
+    private static final int HELLO_ATTEMPTS = 10;
+
+    private final int mLocalPort;
+    private final String mRemoteHost;
+    private final int mRemotePort;
+    private DatagramSocket mAcceptSocket = null;
+    private UdpLink mAcceptedLink = null;
+    private boolean mClosed = false;
+    private float mLossRate = 0;
+    private int mDelay = 0;
+    private int mJitter = 0;
+
+    /**
+     * Constructor
+     * @param localPort - the port to listen on, or 0 for any port when connecting
+     * @param remoteHost - the host to connect to. It is not used for accepting.
+     * @param remotePort - the port to connect to
+     */
+    public UdpTransport(int localPort, String remoteHost, int remotePort) {
+        mLocalPort = localPort;
+        mRemoteHost = remoteHost;
+        mRemotePort = remotePort;
+    }
+
+    /**
+     * Impairs the links created after this call. The impairment is applied
+     * on the sending side.
+     * @param lossRate - the probability of dropping a packet, between 0 and 1
+     * @param delay - how many miliseconds every packet is delayed
+     * @param jitter - a random extra delay of up to this many miliseconds
+     */
+    public synchronized void setImpairment(float lossRate, int delay, int jitter) {
+        mLossRate = lossRate;
+        mDelay = delay;
+        mJitter = jitter;
+    }
+
+    /**
+     * Sends hellos to the remote device until one is acknowledged
+     * @throws IOException if no hello is acknowledged after HELLO_ATTEMPTS tries
+     */
+    @Override
+    public ILink connect() throws IOException {
+        DatagramSocket socket = new DatagramSocket(mLocalPort);
+        try {
+            socket.connect(new InetSocketAddress(mRemoteHost, mRemotePort));
+            socket.setSoTimeout(HELLO_INTERVAL);
+            DatagramPacket answer = new DatagramPacket(new byte[UdpLink.MAX_DATAGRAM_LEN],
+                                                       UdpLink.MAX_DATAGRAM_LEN);
+            for (int i = 0; i < HELLO_ATTEMPTS; i++) {
+                UdpLink.sendControl(socket, UdpLink.TYPE_HELLO);
+                try {
+                    answer.setLength(UdpLink.MAX_DATAGRAM_LEN);
+                    socket.receive(answer);
+                } catch (SocketTimeoutException ste) {
+                    continue;
+                } catch (PortUnreachableException pue) {
+                    // The remote device is not accepting yet
+                    sleep(HELLO_INTERVAL);
+                    continue;
+                }
+                // Anything but a hello means that the remote device accepted
+                // the link, even if the acknowledgement was lost
+                if (answer.getLength() > 0 && answer.getData()[0] != UdpLink.TYPE_HELLO)
+                    return impair(new UdpLink(socket, null));
+            }
+            throw new IOException("No answer from " + mRemoteHost + ":" + mRemotePort);
+        } catch (IOException ioe) {
+            socket.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Waits for a hello and acknowledges it. Other datagrams are ignored.
+     */
+
+    @Override
+    public ILink accept() throws IOException {
+        DatagramSocket socket;
+        synchronized (this) {
+            try {
+                while (mAcceptedLink != null && !mClosed)
+                    wait();
+            } catch (InterruptedException ie) {
+                throw new IOException("Interrupted while accepting");
+            }
+            if (mClosed)
+                throw new IOException("The transport was closed");
+            mAcceptSocket = new DatagramSocket(null);
+            mAcceptSocket.setReuseAddress(true);
+            mAcceptSocket.bind(new InetSocketAddress(mLocalPort));
+            socket = mAcceptSocket;
+        }
+
+        try {
+            DatagramPacket hello = new DatagramPacket(new byte[UdpLink.MAX_DATAGRAM_LEN],
+                                                      UdpLink.MAX_DATAGRAM_LEN);
+            do {
+                hello.setLength(UdpLink.MAX_DATAGRAM_LEN);
+                socket.receive(hello);
+            } while (hello.getLength() < 1 || hello.getData()[0] != UdpLink.TYPE_HELLO);
+            socket.connect(hello.getSocketAddress());
+            UdpLink.sendControl(socket, UdpLink.TYPE_HELLO_ACK);
+
+            synchronized (this) {
+                mAcceptSocket = null;
+                mAcceptedLink = new UdpLink(socket, this);
+                return impair(mAcceptedLink);
+            }
+        } catch (IOException ioe) {
+            socket.close();
+            throw ioe;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        if (mAcceptSocket != null)
+            mAcceptSocket.close();
+        notifyAll();
+    }
+
+    /**
+     * Called by an accepted link when it closes, so that the port can be
+     * used for accepting again.
+     */
+    synchronized void linkClosed(UdpLink link) {
+        if (mAcceptedLink == link) {
+            mAcceptedLink = null;
+            notifyAll();
+        }
+    }
+
+    private synchronized ILink impair(ILink link) {
+        if (mLossRate <= 0 && mDelay <= 0 && mJitter <= 0)
+            return link;
+        return new LossyLink(link, mLossRate, mDelay, mJitter);
+    }
+
+    private static void sleep(int ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while connecting");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import com.motolky.Common;
+
+/**
+ * An audio sink that plays the sound on the phone, as a voice call
+ */
+public class AudioTrackSink implements IAudioSink {
+    private AudioTrack mAudioTrack;
+    private float mMaxVolume;
+    private float mMinVolume;
+
+    public AudioTrackSink() {
+        int minLen = AudioTrack.getMinBufferSize(Common.SAMPLE_RATE, Common.CHANNEL_CONFIG,
+                Common.AUDIO_FORMAT);
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL,
+                Common.SAMPLE_RATE, Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT,
+                minLen, AudioTrack.MODE_STREAM);
+        mMaxVolume = AudioTrack.getMaxVolume();
+        mMinVolume = AudioTrack.getMinVolume();
+    }
+
+    @Override
+    public void play() {
+        mAudioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        mAudioTrack.pause();
+    }
+
+    @Override
+    public int write(short[] buffer, int offset, int length) {
+        return mAudioTrack.write(buffer, offset, length);
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        float v = mMinVolume + (mMaxVolume - mMinVolume) * volume;
+        mAudioTrack.setStereoVolume(v, v);
+    }
+
+    @Override
+    public void release() {
+        try {
+            mAudioTrack.stop();
+        } catch (IllegalStateException e) {}
+        mAudioTrack.release();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ring of preallocated blocks between two stages of the capture pipeline,
+ * each running on its own thread. It works like the FrameRing: there is
+ * exactly one producer and one consumer, and each of them only writes its
+ * own index, so neither of them takes a lock. Besides the
+ * block itself, every slot holds the number of valid elements in the block
+ * and the time the block was captured.
+ *
+ * The consumer waits for blocks by parking, and the producer unparks it
+ * when it publishes one. The consumer thread is given when it is created,
+ * so a wake up that comes before it waits for the first time is not lost.
+ */
+public class BlockRing<T> {
+    private final T[] mSlots;
+    private final int[] mLengths;
+    private final long[] mTimes;
+    private final int mMask;
+    private final AtomicInteger mHead = new AtomicInteger(0);
+    private final AtomicInteger mTail = new AtomicInteger(0);
+    private volatile Thread mConsumer = null;
+    private volatile int mOverflows = 0;
+
+    /**
+     * Constructor
+     * @param slots - the preallocated blocks. Their number has to be a power of 2.
+     * @throws InvalidParameterException
+     */
+    public BlockRing(T[] slots) throws InvalidParameterException {
+        int capacity = slots.length;
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new InvalidParameterException("The capacity should be a power of 2");
+        mSlots = slots;
+        mLengths = new int[capacity];
+        mTimes = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Tells which thread consumes the blocks. It has to be called before
+     * the thread is started.
+     * @param consumer - the thread that calls peek, release and await
+     */
+    public void setConsumer(Thread consumer) {
+        mConsumer = consumer;
+    }
+
+    /**
+     * Called by the producer.
+     * @return the block to fill next, or null if the ring is full
+     */
+    public T getFreeSlot() {
+        int tail = mTail.get();
+        if (tail - mHead.get() > mMask)
+            return null;
+        return mSlots[tail & mMask];
+    }
+
+    /**
+     * Called by the producer after it filled the free block. Wakes up the consumer.
+     * @param length - the number of valid elements in the block
+     * @param time - when the data in the block was captured, in IClock nanoseconds
+     */
+    public void publish(int length, long time) {
+        int tail = mTail.get();
+        mLengths[tail & mMask] = length;
+        mTimes[tail & mMask] = time;
+        // A full write, not lazySet, so the consumer is read after the tail
+        // is visible and a consumer that is about to park is not missed
+        mTail.set(tail + 1);
+
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Called by the producer when it dropped a block because the ring was full
+     */
+    public void overflow() {
+        mOverflows++;
+    }
+
+    /**
+     * Called by the consumer.
+     * @return the oldest block in the ring, or null if the ring is empty
+     */
+    public T peek() {
+        int head = mHead.get();
+        if (head == mTail.get())
+            return null;
+        return mSlots[head & mMask];
+    }
+
+    /**
+     * @return the number of valid elements in the block returned by peek
+     */
+    public int peekLength() {
+        return mLengths[mHead.get() & mMask];
+    }
+
+    /**
+     * @return when the data in the block returned by peek was captured
+     */
+    public long peekTime() {
+        return mTimes[mHead.get() & mMask];
+    }
+
+    /**
+     * Called by the consumer when it is done with the block returned by peek
+     */
+    public void release() {
+        mHead.lazySet(mHead.get() + 1);
+    }
+
+    /**
+     * Called by the consumer. Parks the calling thread until the producer
+     * publishes a block or the thread is unparked by someone else.
+     */
+    public void await() {
+        if (mHead.get() == mTail.get())
+            LockSupport.park(this);
+    }
+
+    /**
+     * Wakes up the consumer, for example when it has to exit
+     */
+    public void wakeUp() {
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * @return the number of blocks in the ring
+     */
+    public int size() {
+        return mTail.get() - mHead.get();
+    }
+
+    /**
+     * @return the number of blocks dropped because the ring was full
+     */
+    public int getOverflows() {
+        return mOverflows;
+    }
+}
@@ -1,104 +1,269 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky.sound;
-
-import java.security.InvalidParameterException;
-
-/**
- * This is an abstract class for an encoder or a decoder. Do not instantiate it directly.
- *
- * The data recorded from the microphone or sent to a player is raw. However, in
- * order to send it via bluetooth, we encoded it using an encoder.
- * This class defines two methods, one for encoding and one for decoding.
- * The descendends of this class need to implement these two methods.
- */
-public abstract class Codec
-{
-    public static int CODEC_COMPLEXITY = 1;
-    protected int mFrameSize = 160;
-
-    /**
-     * Given a buffer of data, decode it and return the result
-     * @param data - the data to decode
-     * @param nr - the number of bytes from buffer to decode
-     * @return the decoded data
-     * @throws InvalidParameterException
-     */
-    public short[] decodeAndGetDecoded(byte[] data, int nr) throws InvalidParameterException
-    {
-        return null;
-    }
-
-    /**
-     * Given a buffer of data, encode it and return the result
-     * @param data - the data to encode
-     * @param start - where the data to encode starts in the given buffer
-     * @param end - where the data to encode ends in the given buffer
-     * @return the encoded data
-     * @throws InvalidParameterException
-     */
-    public byte[] encodeAndGetEncoded(short[] data, int start, int end) throws InvalidParameterException
-    {
-        return null;
-    }
-
-    /**
-     *  End the encoding/decoding
-     */
-    public abstract void exit();
-
-    /**
-     * The data is divided in chunks that are encoded/decoded.
-     * @return the size of the codec's sample
-     */
-    public int getSampleSize()
-    {
-        return this.mFrameSize;
-    }
-
-    /**
-     * Data sanity check
-     * @param nr - this needs to be equal to the sample size
-     * @throws InvalidParameterException
-     */
-    public void verifyDataLen(int nr) throws InvalidParameterException
-    {
-        if (nr != getSampleSize())
-            throw new InvalidParameterException("Data length should equal " + getSampleSize());
-    }
-
-    protected void switchEndianness(byte[] data)
-    {
-        for (int i = 0; i < data.length; i += 2)
-        {
-            byte tmp = data[i];
-            data[i] = data[i + 1];
-            data[i + 1] = tmp;
-        }
-    }
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.security.InvalidParameterException;
+
+/**
+ * This is an abstract class for an encoder or a decoder. Do not instantiate it directly.
+ *
+ * The data recorded from the microphone or sent to a player is raw. However, in
+ * order to send it via bluetooth, we encoded it using an encoder.
+ * This class defines two methods, one for encoding and one for decoding.
+ * The descendends of this class need to implement these two methods.
+ *
+ * The data can also be given in NIO buffers. The codecs pass direct buffers
+ * to the native code without copying them. Other buffers are copied through
+ * arrays by the implementation in this class.
+ */
+public abstract class Codec
+{
+    public static int CODEC_COMPLEXITY = 1;
+    protected int mFrameSize = 160;
+    private short[] mPcmScratch = null;
+    private byte[] mByteScratch = null;
+    private static boolean libraryLoaded = false;
+
+    /**
+     * Loads the speex library, the first time a native codec is created.
+     * The codecs that do not use it can be created without it.
+     */
+    protected static synchronized void loadLibrary()
+    {
+        if (libraryLoaded)
+            return;
+        System.loadLibrary("speex");
+        libraryLoaded = true;
+    }
+
+    /**
+     * Given a buffer of data, decode it and return the result
+     * @param data - the data to decode
+     * @param nr - the number of bytes from buffer to decode
+     * @return the decoded data
+     * @throws InvalidParameterException
+     */
+    public short[] decodeAndGetDecoded(byte[] data, int nr) throws InvalidParameterException
+    {
+        return null;
+    }
+
+    /**
+     * Decode a frame of data into a buffer given by the caller. Unlike
+     * decodeAndGetDecoded, this method does not allocate memory.
+     * @param data - the buffer with the data to decode
+     * @param offset - where the data starts in the buffer
+     * @param nr - the number of bytes to decode
+     * @param out - where to write the decoded samples
+     * @param outOffset - where to start writing in out
+     * @return the number of samples written in out, or 0 if nothing was decoded
+     * @throws InvalidParameterException
+     */
+    public int decode(byte[] data, int offset, int nr, short[] out, int outOffset)
+            throws InvalidParameterException
+    {
+        return 0;
+    }
+
+    /**
+     * Given a buffer of data, encode it and return the result
+     * @param data - the data to encode
+     * @param start - where the data to encode starts in the given buffer
+     * @param end - where the data to encode ends in the given buffer
+     * @return the encoded data
+     * @throws InvalidParameterException
+     */
+    public byte[] encodeAndGetEncoded(short[] data, int start, int end) throws InvalidParameterException
+    {
+        return null;
+    }
+
+    /**
+     * Encode a frame of data into a buffer given by the caller. Unlike
+     * encodeAndGetEncoded, this method does not allocate memory.
+     * @param data - the data to encode
+     * @param start - where the data to encode starts in the given buffer
+     * @param length - the number of samples to encode
+     * @param out - where to write the encoded data
+     * @param outOffset - where to start writing in out
+     * @return the number of bytes written in out, or 0 if nothing was encoded
+     * @throws InvalidParameterException
+     */
+    public int encode(short[] data, int start, int length, byte[] out, int outOffset)
+            throws InvalidParameterException
+    {
+        return 0;
+    }
+
+    /**
+     * Encode a frame read from the position of the input buffer and write the
+     * result at the position of the output buffer. Both positions are advanced.
+     * @param in - the samples to encode
+     * @param out - where to write the encoded data
+     * @return the number of bytes written in out, or 0 if nothing was encoded
+     * @throws InvalidParameterException
+     */
+    public int encode(ShortBuffer in, ByteBuffer out) throws InvalidParameterException
+    {
+        int samples = getSampleSize();
+        if (in.remaining() < samples)
+            throw new InvalidParameterException("The input buffer has less than " + samples + " samples");
+
+        short[] pcm;
+        int pcmOffset;
+        if (in.hasArray()) {
+            pcm = in.array();
+            pcmOffset = in.arrayOffset() + in.position();
+        } else {
+            pcm = getPcmScratch();
+            pcmOffset = 0;
+            in.get(pcm, 0, samples);
+            in.position(in.position() - samples);
+        }
+
+        byte[] bytes = getByteScratch();
+        int len = encode(pcm, pcmOffset, samples, bytes, 0);
+        if (len > out.remaining())
+            throw new InvalidParameterException("The output buffer is too small");
+        out.put(bytes, 0, len);
+        in.position(in.position() + samples);
+        return len;
+    }
+
+    /**
+     * Decode a frame read from the position of the input buffer and write the
+     * samples at the position of the output buffer. Both positions are advanced.
+     * @param in - the data to decode
+     * @param nr - the number of bytes to decode
+     * @param out - where to write the decoded samples
+     * @return the number of samples written in out, or 0 if nothing was decoded
+     * @throws InvalidParameterException
+     */
+    public int decode(ByteBuffer in, int nr, ShortBuffer out) throws InvalidParameterException
+    {
+        if (in.remaining() < nr)
+            throw new InvalidParameterException("The input buffer has less than " + nr + " bytes");
+        if (out.remaining() < getSampleSize())
+            throw new InvalidParameterException("The output buffer is too small");
+
+        byte[] bytes;
+        int bytesOffset;
+        if (in.hasArray()) {
+            bytes = in.array();
+            bytesOffset = in.arrayOffset() + in.position();
+        } else {
+            bytes = getByteScratch();
+            bytesOffset = 0;
+            in.get(bytes, 0, nr);
+            in.position(in.position() - nr);
+        }
+
+        int samples;
+        if (out.hasArray()) {
+            samples = decode(bytes, bytesOffset, nr, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + samples);
+        } else {
+            short[] pcm = getPcmScratch();
+            samples = decode(bytes, bytesOffset, nr, pcm, 0);
+            out.put(pcm, 0, samples);
+        }
+        in.position(in.position() + nr);
+        return samples;
+    }
+
+    /**
+     * Allocates a direct buffer that can hold the given number of samples
+     * and that can be passed to the native code without copying.
+     * @param samples - the capacity of the buffer
+     * @return the buffer
+     */
+    public static ShortBuffer allocateDirectPcm(int samples)
+    {
+        return ByteBuffer.allocateDirect(2 * samples).order(ByteOrder.nativeOrder()).asShortBuffer();
+    }
+
+    /**
+     * Checks whether the buffers can be given to the native code as they are
+     */
+    protected static boolean canPassDirectly(ShortBuffer pcm, ByteBuffer bytes)
+    {
+        return pcm.isDirect() && bytes.isDirect() && pcm.order() == ByteOrder.nativeOrder();
+    }
+
+    /**
+     *  End the encoding/decoding
+     */
+    public abstract void exit();
+
+    /**
+     * The data is divided in chunks that are encoded/decoded.
+     * @return the size of the codec's sample
+     */
+    public int getSampleSize()
+    {
+        return this.mFrameSize;
+    }
+
+    /**
+     * Data sanity check
+     * @param nr - this needs to be equal to the sample size
+     * @throws InvalidParameterException
+     */
+    public void verifyDataLen(int nr) throws InvalidParameterException
+    {
+        if (nr != getSampleSize())
+            throw new InvalidParameterException("Data length should equal " + getSampleSize());
+    }
+
+    private short[] getPcmScratch()
+    {
+        if (mPcmScratch == null)
+            mPcmScratch = new short[getSampleSize()];
+        return mPcmScratch;
+    }
+
+    private byte[] getByteScratch()
+    {
+        if (mByteScratch == null)
+            mByteScratch = new byte[Frame.MAX_PAYLOAD_LEN];
+        return mByteScratch;
+    }
+
+    protected void switchEndianness(byte[] data)
+    {
+        for (int i = 0; i < data.length; i += 2)
+        {
+            byte tmp = data[i];
+            data[i] = data[i + 1];
+            data[i + 1] = tmp;
+        }
+    }
 }
\ No newline at end of file
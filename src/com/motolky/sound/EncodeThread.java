@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+
+/**
+ * The encoding stage of the capture pipeline. It takes the blocks of raw
+ * sound captured by the record thread, feeds them to the sound processor
+ * and passes the encoded frames to the send stage. It runs on its own
+ * thread, so a slow encode does not delay the next read from the source.
+ * The blocks are fed to the processor one frame at a time, so every frame
+ * is timed against its own deadline.
+ */
+class EncodeThread extends Thread {
+    private final ISoundProcessor mSoundProcessor;
+    private final BlockRing<short[]> mIn;
+    private final BlockRing<byte[]> mOut;
+    private final byte[] mScratch;
+    private final short[] mFrame = new short[Common.FRAME_LEN];
+    private final StageTimer mEncodeTimer;
+    private volatile boolean mExit = false;
+
+    /**
+     * Constructor
+     * @param soundProcessor - what encodes the sound
+     * @param in - the blocks of raw sound
+     * @param out - where to put the encoded frames. A block of length 0
+     *          means that no frame is ready.
+     * @param blockBytes - the size of the blocks of the out ring
+     * @param deadlineNanos - how long encoding a frame may take
+     */
+    EncodeThread(ISoundProcessor soundProcessor, BlockRing<short[]> in,
+                 BlockRing<byte[]> out, int blockBytes, long deadlineNanos) {
+        super("encode");
+        mSoundProcessor = soundProcessor;
+        mIn = in;
+        mIn.setConsumer(this);
+        mOut = out;
+        mScratch = new byte[blockBytes];
+        mEncodeTimer = new StageTimer("encode stage", deadlineNanos);
+    }
+
+    public StageTimer getTimer() {
+        return mEncodeTimer;
+    }
+
+    public void exit() {
+        mExit = true;
+        mIn.wakeUp();
+    }
+
+    @Override
+    public void run() {
+        while (!mExit) {
+            short[] block = mIn.peek();
+            if (block == null) {
+                mIn.await();
+                continue;
+            }
+
+            long time = mIn.peekTime();
+            int len = mIn.peekLength();
+            if (len == 0) {
+                // The microphone was turned off
+                mSoundProcessor.endTalkSpurt();
+            } else {
+                // The time of a block is when its last sample was captured
+                mSoundProcessor.setCaptureTime(time - len * 1000000000L / Common.SAMPLE_RATE);
+                encode(block, len);
+            }
+            mIn.release();
+
+            // If the send stage is behind, the frames are still encoded, so
+            // the encoder state stays consistent, but they are dropped
+            byte[] encoded = mOut.getFreeSlot();
+            if (encoded == null) {
+                mOut.overflow();
+                encoded = mScratch;
+            }
+            int no = mSoundProcessor.getProcessedSound(encoded, encoded.length);
+
+            if (encoded != mScratch)
+                mOut.publish(no, time);
+
+            // The end of the talk spurt is sent right away
+            if (len == 0 && no > 0) {
+                if (mOut.getFreeSlot() == null)
+                    mOut.overflow();
+                else
+                    mOut.publish(0, time);
+            }
+        }
+    }
+
+    /**
+     * Feeds a block to the sound processor one frame at a time
+     */
+    private void encode(short[] block, int len) {
+        for (int off = 0; off < len; off += Common.FRAME_LEN) {
+            int no = Math.min(Common.FRAME_LEN, len - off);
+            short[] frame = block;
+            if (off > 0) {
+                System.arraycopy(block, off, mFrame, 0, no);
+                frame = mFrame;
+            }
+            mEncodeTimer.begin();
+            try {
+                mSoundProcessor.addRawSound(frame, no);
+            } catch (Exception e) {
+                Logger.e(Common.TAG, "Error encoding: " + e.getMessage());
+            }
+            mEncodeTimer.end();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class describes the wire format of an encoded audio frame.
+ *
+ * Every encoded frame sent over bluetooth is prefixed by a fixed size header:
+ *
+ *   byte  0     - MAGIC
+ *   byte  1     - VERSION of the format
+ *   byte  2     - flags
+ *   byte  3     - the level of the QualityLadder the frame was encoded at
+ *   bytes 4-5   - length of the payload (unsigned, big endian)
+ *   bytes 6-7   - sequence number of the frame (unsigned, big endian)
+ *   bytes 8-11  - capture timestamp of the frame, in samples (big endian)
+ *
+ * The flags tell what kind of payload the frame carries:
+ *
+ *   FLAG_SID    - a silence descriptor instead of encoded sound. The payload
+ *                 is the level of the background noise (2 bytes, big endian).
+ *                 The sequence number goes on from the last frame sent, while
+ *                 the timestamp shows how much silence was skipped.
+ *   FLAG_REDUNDANT - a low quality copy of a frame sent before, with the
+ *                 sequence number and the timestamp of that frame. It is
+ *                 only used if the original frame was lost.
+ *   FLAG_REPORT - a receiver report about the frames received from the
+ *                 other side (see ReceiverReport). It is not part of the
+ *                 sound, so its sequence number is always 0.
+ *
+ * The sender may encode a frame at several levels, one for every level its
+ * links use. The copies have the same sequence number and timestamp, and
+ * every link sends only one of them. The receiver does not need the level,
+ * as the decoder finds the bitrate in the payload.
+ *
+ * The header is followed by exactly length bytes of encoded data. Since the
+ * receiver knows where a frame ends from its header, it never has to look
+ * inside the payload, so the payload may contain any byte values.
+ *
+ * An object of this class holds one received frame: its header fields and
+ * a buffer with its payload.
+ */
+public class Frame
+{
+    public static final byte MAGIC = 0x4D;
+    public static final byte VERSION = 1;
+    public static final int HEADER_LEN = 12;
+    public static final int MAX_PAYLOAD_LEN = 1024;
+    public static final int SEQUENCE_MOD = 0x10000;
+    public static final int FLAG_SID = 0x01;
+    public static final int FLAG_REDUNDANT = 0x02;
+    public static final int FLAG_REPORT = 0x04;
+    public static final int SID_PAYLOAD_LEN = 2;
+
+    private byte[] mData;
+    private int mLength = 0;
+    private int mSequence = 0;
+    private int mTimestamp = 0;
+    private int mFlags = 0;
+
+    public Frame(byte[] data, int length, int sequence, int timestamp, int flags) {
+        mData = data;
+        mLength = length;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+        mFlags = flags;
+    }
+
+    /**
+     * Changes the header fields of the frame. The payload is expected
+     * to have already been copied in the buffer returned by getData().
+     */
+    void set(int length, int sequence, int timestamp, int flags) {
+        mLength = length;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+        mFlags = flags;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public int getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * Writes a frame header in the given buffer
+     * @param buffer - where to write the header
+     * @param offset - where the header starts in the buffer
+     * @param length - the length of the payload that follows the header
+     * @param sequence - the sequence number of the frame
+     * @param timestamp - the capture timestamp of the frame
+     * @param flags - the flags of the frame
+     * @return the number of bytes written
+     */
+    public static int writeHeader(byte[] buffer, int offset, int length,
+                                  int sequence, int timestamp, int flags) {
+        buffer[offset] = MAGIC;
+        buffer[offset + 1] = VERSION;
+        buffer[offset + 2] = (byte)flags;
+        buffer[offset + 3] = 0;
+        buffer[offset + 4] = (byte)(length >> 8);
+        buffer[offset + 5] = (byte)length;
+        buffer[offset + 6] = (byte)(sequence >> 8);
+        buffer[offset + 7] = (byte)sequence;
+        buffer[offset + 8] = (byte)(timestamp >> 24);
+        buffer[offset + 9] = (byte)(timestamp >> 16);
+        buffer[offset + 10] = (byte)(timestamp >> 8);
+        buffer[offset + 11] = (byte)timestamp;
+        return HEADER_LEN;
+    }
+
+    /**
+     * Marks the frame at the given offset with the level it was encoded at
+     * @param buffer - the buffer with the frame
+     * @param offset - where the header starts in the buffer
+     * @param level - the level of the QualityLadder
+     */
+    public static void writeLevel(byte[] buffer, int offset, int level) {
+        buffer[offset + 3] = (byte)level;
+    }
+
+    /**
+     * Checks whether the given buffer contains a valid header at the given offset
+     * @param buffer - the buffer with the header
+     * @param offset - where the header starts in the buffer
+     * @return true if the header can be parsed
+     */
+    public static boolean isValidHeader(byte[] buffer, int offset) {
+        return buffer[offset] == MAGIC && buffer[offset + 1] == VERSION &&
+                readLength(buffer, offset) <= MAX_PAYLOAD_LEN;
+    }
+
+    /**
+     * Computes the signed distance between two sequence numbers, taking the
+     * wrap around into account
+     * @return a positive number if a comes after b, negative if before
+     */
+    public static int sequenceDiff(int a, int b) {
+        return ((a - b + SEQUENCE_MOD / 2) & (SEQUENCE_MOD - 1)) - SEQUENCE_MOD / 2;
+    }
+
+    public static int readFlags(byte[] buffer, int offset) {
+        return buffer[offset + 2] & 0xFF;
+    }
+
+    public static int readLevel(byte[] buffer, int offset) {
+        return buffer[offset + 3] & 0xFF;
+    }
+
+    public static int readLength(byte[] buffer, int offset) {
+        return ((buffer[offset + 4] & 0xFF) << 8) | (buffer[offset + 5] & 0xFF);
+    }
+
+    public static int readSequence(byte[] buffer, int offset) {
+        return ((buffer[offset + 6] & 0xFF) << 8) | (buffer[offset + 7] & 0xFF);
+    }
+
+    public static int readTimestamp(byte[] buffer, int offset) {
+        return ((buffer[offset + 8] & 0xFF) << 24) | ((buffer[offset + 9] & 0xFF) << 16) |
+                ((buffer[offset + 10] & 0xFF) << 8) | (buffer[offset + 11] & 0xFF);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ring of preallocated frames between exactly one producer thread and
+ * exactly one consumer thread. It does not use locks: the producer only
+ * moves the tail, the consumer only moves the head, and each of them
+ * publishes its index with an ordered write after it is done with a slot.
+ *
+ * The producer fills the slot returned by getFreeSlot and makes it visible
+ * with publish. The consumer reads the slot returned by peek and gives it
+ * back with release. When the ring is full the producer has to drop the
+ * frame and report it with overflow, so the loss is counted.
+ */
+public class FrameRing {
+    private final Frame[] mSlots;
+    private final long[] mArrivalTimes;
+    private final int mMask;
+    private final AtomicInteger mHead = new AtomicInteger(0);
+    private final AtomicInteger mTail = new AtomicInteger(0);
+    private volatile int mOverflows = 0;
+
+    /**
+     * Constructor
+     * @param capacity - the number of frames in the ring. It has to be a power of 2.
+     * @throws InvalidParameterException
+     */
+    public FrameRing(int capacity) throws InvalidParameterException {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new InvalidParameterException("The capacity should be a power of 2");
+        mMask = capacity - 1;
+        mSlots = new Frame[capacity];
+        mArrivalTimes = new long[capacity];
+        for (int i = 0; i < capacity; i++)
+            mSlots[i] = new Frame(new byte[Frame.MAX_PAYLOAD_LEN], 0, 0, 0, 0);
+    }
+
+    /**
+     * Called by the producer.
+     * @return the slot to fill with the next frame, or null if the ring is full
+     */
+    public Frame getFreeSlot() {
+        int tail = mTail.get();
+        if (tail - mHead.get() > mMask)
+            return null;
+        return mSlots[tail & mMask];
+    }
+
+    /**
+     * Called by the producer after it filled the free slot
+     * @param arrivalTime - when the frame was received, in IClock nanoseconds
+     */
+    public void publish(long arrivalTime) {
+        int tail = mTail.get();
+        mArrivalTimes[tail & mMask] = arrivalTime;
+        mTail.lazySet(tail + 1);
+    }
+
+    /**
+     * Called by the producer when it dropped a frame because the ring was full
+     */
+    public void overflow() {
+        mOverflows++;
+    }
+
+    /**
+     * Called by the consumer.
+     * @return the oldest frame in the ring, or null if the ring is empty
+     */
+    public Frame peek() {
+        int head = mHead.get();
+        if (head == mTail.get())
+            return null;
+        return mSlots[head & mMask];
+    }
+
+    /**
+     * Called by the consumer.
+     * @return when the frame returned by peek was received
+     */
+    public long peekArrivalTime() {
+        return mArrivalTimes[mHead.get() & mMask];
+    }
+
+    /**
+     * Called by the consumer when it is done with the frame returned by peek
+     */
+    public void release() {
+        mHead.lazySet(mHead.get() + 1);
+    }
+
+    /**
+     * @return the number of frames in the ring
+     */
+    public int size() {
+        return mTail.get() - mHead.get();
+    }
+
+    /**
+     * @return the number of frames dropped because the ring was full
+     */
+    public int getOverflows() {
+        return mOverflows;
+    }
+}
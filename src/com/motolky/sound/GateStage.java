@@ -0,0 +1,79 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * A noise gate. The blocks whose level is under the threshold are silenced,
+ * which removes the wind and engine noise between words. The gate stays
+ * open for a few blocks after the level drops, so the ends of the words
+ * are not cut.
+ */
+public class GateStage implements ISoundStage {
+    private final int mHoldBlocks;
+    private volatile long mThresholdEnergy;
+    private int mHold = 0;
+
+    /**
+     * Constructor
+     * @param threshold - the root mean square level under which the gate closes
+     * @param holdBlocks - for how many blocks the gate stays open after the
+     *          level went under the threshold
+     */
+    public GateStage(int threshold, int holdBlocks) {
+        mHoldBlocks = holdBlocks;
+        setThreshold(threshold);
+    }
+
+    public void setThreshold(int threshold) {
+        mThresholdEnergy = (long)threshold * threshold;
+    }
+
+    @Override
+    public String getName() {
+        return "gate";
+    }
+
+    @Override
+    public int process(short[] in, int length, short[] out) {
+        long energy = 0;
+        for (int i = 0; i < length; i++)
+            energy += in[i] * in[i];
+
+        if (energy >= mThresholdEnergy * length)
+            mHold = mHoldBlocks;
+        else if (mHold > 0)
+            mHold--;
+
+        if (energy >= mThresholdEnergy * length || mHold > 0)
+            System.arraycopy(in, 0, out, 0, length);
+        else
+            for (int i = 0; i < length; i++)
+                out[i] = 0;
+        return length;
+    }
+}
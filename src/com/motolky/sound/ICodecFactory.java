@@ -0,0 +1,59 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * Creates the encoders and the decoders of the pipeline. On the phone they
+ * are the speex codecs. A test that runs without the native library can
+ * give codecs written in Java instead.
+ */
+public interface ICodecFactory {
+    public static final ICodecFactory SPEEX = new ICodecFactory() {
+        @Override
+        public SoundEncoder createEncoder() throws Exception {
+            return new SoundEncoder();
+        }
+
+        @Override
+        public SoundDecoder createDecoder() throws Exception {
+            return new SoundDecoder();
+        }
+    };
+
+    /**
+     * @return a new encoder with the default settings
+     * @throws Exception if the encoder could not be created
+     */
+    public SoundEncoder createEncoder() throws Exception;
+
+    /**
+     * @return a new decoder
+     * @throws Exception if the decoder could not be created
+     */
+    public SoundDecoder createDecoder() throws Exception;
+}
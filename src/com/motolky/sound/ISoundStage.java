@@ -0,0 +1,55 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * An interface for one step of the processing of the raw sound, before it
+ * is encoded. The stages are chained by a SoundChain, which gives every
+ * stage the output of the stage before it. The buffers belong to the chain
+ * and are reused for every block, so a stage should not allocate memory
+ * while processing.
+ */
+public interface ISoundStage {
+    /**
+     * @return the name of the stage, used when reporting its timing
+     */
+    public String getName();
+
+    /**
+     * Processes a block of sound
+     * @param in - the input samples
+     * @param length - the number of input samples
+     * @param out - where to write the output samples. It is a different
+     *          buffer than in, and it has room for at least
+     *          SoundChain.MAX_EXPANSION times the input length, plus one
+     *          sample for a stage that carries a fraction of a sample
+     *          from the block before.
+     * @return the number of samples written to out
+     */
+    public int process(short[] in, int length, short[] out);
+}
@@ -0,0 +1,377 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.security.InvalidParameterException;
+
+import com.motolky.Common;
+
+/**
+ * This class implements a jitter buffer for the frames received from one peer.
+ *
+ * The frames are stored in slots indexed by their sequence number, so they
+ * are played in order even if they arrive late. The buffer measures the
+ * jitter of the arrival times (the same way RTP does it) and adapts the
+ * number of frames it keeps before starting the playout. When the buffered
+ * audio goes above Common.MAX_PLAYOUT_LATENCY, the oldest whole frames are
+ * discarded until the latency goes back to the target.
+ *
+ * A pause of the sender is not jitter. When the buffer ran dry and nothing
+ * arrived for longer than the latency ceiling, or when the sequence number
+ * or the timestamp jumps by more than the buffer can hold, the jitter
+ * measurement starts again from the next frame. This way the start of a
+ * talk spurt is not played with the maximum delay.
+ *
+ * A silence descriptor does not start a talk spurt, so it is played as
+ * soon as it is next, without waiting for the buffer to fill up to its
+ * target. Otherwise every descriptor would wait for the next one.
+ *
+ * A missing frame is not skipped silently. In its place the buffer returns
+ * a frame without payload, so the player can conceal it.
+ *
+ * A redundant copy of a frame only fills the slot of its frame if that
+ * frame is missing, and it is ignored if it comes too late. While copies
+ * arrive, the buffer keeps enough frames for them to arrive in time.
+ *
+ * This class is not thread safe. The caller has to synchronize the access to it.
+ */
+public class JitterBuffer
+{
+    private static final int MIN_DELAY_FRAMES = 2;
+    private static final int REDUNDANCY_TIMEOUT_FRAMES = 250;
+
+    private final Frame[] mSlots;
+    private final boolean[] mFull;
+    private final int mFrameSamples;
+    private final Frame mLostFrame = new Frame(new byte[0], 0, 0, 0, 0);
+
+    private boolean mStarted = false;
+    private boolean mBuffering = true;
+    private int mNextSeq = 0;     // The next sequence number to play
+    private int mHighestSeq = 0;  // The highest sequence number received
+    private int mCount = 0;       // The number of frames in the buffer
+
+    private long mStartTime = 0;  // The arrival time of the first frame
+    private boolean mHaveTransit = false;
+    private int mLastTransit = 0;
+    private int mLastTimestamp = 0;
+    private long mLastArrival = 0;
+    private boolean mUnderrun = false;
+    private int mJitter = 0;      // In samples, scaled by 16
+    private int mTargetFrames = MIN_DELAY_FRAMES;
+    private int mRedundantSpan = 0; // How late the redundant copies come, in frames
+    private int mFramesSinceRedundant = 0;
+
+    private int mLate = 0;
+    private int mDiscarded = 0;
+    private int mLost = 0;
+    private int mReceived = 0;
+    private int mRecovered = 0;
+
+    /**
+     * Constructor
+     * @param frameSamples - the number of samples in a frame
+     * @param capacity - the maximum number of frames the buffer holds. It has
+     *             to be a power of 2, so the slots follow the sequence wrap around.
+     * @throws InvalidParameterException
+     */
+    public JitterBuffer(int frameSamples, int capacity) throws InvalidParameterException {
+        if (capacity <= 0 || Frame.SEQUENCE_MOD % capacity != 0)
+            throw new InvalidParameterException("The capacity should be a power of 2");
+        mFrameSamples = frameSamples;
+        mSlots = new Frame[capacity];
+        mFull = new boolean[capacity];
+        for (int i = 0; i < capacity; i++)
+            mSlots[i] = new Frame(new byte[Frame.MAX_PAYLOAD_LEN], 0, 0, 0, 0);
+    }
+
+    /**
+     * Inserts a received frame in the buffer
+     * @param frame - the frame received
+     * @param arrivalTime - when the frame was received, in nanoseconds. Only
+     *             the differences between the arrival times are used.
+     */
+    public void putFrame(Frame frame, long arrivalTime) {
+        if ((frame.getFlags() & Frame.FLAG_REDUNDANT) != 0) {
+            putRedundantFrame(frame);
+            return;
+        }
+
+        int seq = frame.getSequence();
+        mReceived++;
+        if (!mStarted)
+            mStartTime = arrivalTime;
+        if (mStarted && isDiscontinuity(seq, frame.getTimestamp(), arrivalTime))
+            mHaveTransit = false;
+        mUnderrun = false;
+        mLastArrival = arrivalTime;
+        updateJitter(frame.getTimestamp(), arrivalTime);
+
+        if (!mStarted) {
+            mStarted = true;
+            mNextSeq = seq;
+            mHighestSeq = seq;
+        }
+
+        int offset = Frame.sequenceDiff(seq, mNextSeq);
+        if (offset < 0) {
+            // Its playout time has already passed
+            mLate++;
+            return;
+        }
+        if (offset >= mSlots.length) {
+            // Too far ahead. The sender probably restarted, so start over.
+            mDiscarded += mCount;
+            clear();
+            mNextSeq = seq;
+            mHighestSeq = seq;
+        }
+
+        int index = seq % mSlots.length;
+        if (mFull[index])
+            return; // Duplicate
+
+        store(frame, index);
+        dropAboveCeiling();
+    }
+
+    /**
+     * Inserts a redundant copy of a frame, if the frame itself is missing
+     * @param frame - the redundant copy
+     */
+    private void putRedundantFrame(Frame frame) {
+        if (!mStarted)
+            return;
+
+        int seq = frame.getSequence();
+        int span = Frame.sequenceDiff(mHighestSeq, seq) + 1;
+        mRedundantSpan = Math.max(mRedundantSpan, Math.min(span, getMaxFrames()));
+        mFramesSinceRedundant = 0;
+
+        int offset = Frame.sequenceDiff(seq, mNextSeq);
+        if (offset < 0 || offset >= mSlots.length)
+            return; // Too late, or not from this stream
+        int index = seq % mSlots.length;
+        if (mFull[index])
+            return; // The frame itself arrived
+
+        store(frame, index);
+        mRecovered++;
+    }
+
+    /**
+     * Copies a frame in its slot
+     */
+    private void store(Frame frame, int index) {
+        int seq = frame.getSequence();
+        Frame slot = mSlots[index];
+        System.arraycopy(frame.getData(), 0, slot.getData(), 0, frame.getLength());
+        slot.set(frame.getLength(), seq, frame.getTimestamp(), frame.getFlags());
+        mFull[index] = true;
+        mCount++;
+        if (Frame.sequenceDiff(seq, mHighestSeq) > 0)
+            mHighestSeq = seq;
+    }
+
+    /**
+     * Returns the next frame to play, if it is time to play one.
+     * The returned frame is only valid until the next call to putFrame.
+     * @return the frame or null if there is nothing to play. If the next
+     *         frame was lost, a frame with length 0 and its sequence number
+     *         is returned.
+     */
+    public Frame getFrame() {
+        if (mCount == 0) {
+            // Underrun. Wait until the buffer fills up again.
+            if (!mBuffering)
+                mUnderrun = true;
+            mBuffering = true;
+            return null;
+        }
+        int index = mNextSeq % mSlots.length;
+        if (mBuffering) {
+            boolean sid = mFull[index] && (mSlots[index].getFlags() & Frame.FLAG_SID) != 0;
+            if (!sid) {
+                if (getDepth() < mTargetFrames)
+                    return null;
+                mBuffering = false;
+            }
+        }
+
+        if (!mFull[index]) {
+            // A newer frame arrived, so this one was lost
+            mLost++;
+            mLostFrame.set(0, mNextSeq, 0, 0);
+            mNextSeq = (mNextSeq + 1) % Frame.SEQUENCE_MOD;
+            return mLostFrame;
+        }
+
+        mFull[index] = false;
+        mCount--;
+        mNextSeq = (mNextSeq + 1) % Frame.SEQUENCE_MOD;
+        if (mRedundantSpan > 0 && ++mFramesSinceRedundant >= REDUNDANCY_TIMEOUT_FRAMES)
+            mRedundantSpan = 0; // The sender stopped sending copies
+        return mSlots[index];
+    }
+
+    /**
+     * @return the number of frames between the next frame to play and the
+     * newest frame received
+     */
+    public int getDepth() {
+        if (mCount == 0)
+            return 0;
+        return Frame.sequenceDiff(mHighestSeq, mNextSeq) + 1;
+    }
+
+    /**
+     * @return the number of frames the buffer tries to keep
+     */
+    public int getTargetDepth() {
+        return mTargetFrames;
+    }
+
+    /**
+     * @return the interarrival jitter in milliseconds
+     */
+    public int getJitter() {
+        return (mJitter >> 4) * 1000 / Common.SAMPLE_RATE;
+    }
+
+    /**
+     * @return the highest sequence number received
+     */
+    public int getHighestSequence() {
+        return mHighestSeq;
+    }
+
+    /**
+     * @return the number of frames that arrived after their playout time
+     */
+    public int getLateFrames() {
+        return mLate;
+    }
+
+    /**
+     * @return the number of frames dropped because the latency was too high
+     */
+    public int getDiscardedFrames() {
+        return mDiscarded;
+    }
+
+    /**
+     * @return the number of frames that never arrived
+     */
+    public int getLostFrames() {
+        return mLost;
+    }
+
+    /**
+     * @return the number of frames received, without the redundant copies
+     */
+    public int getReceivedFrames() {
+        return mReceived;
+    }
+
+    /**
+     * @return the number of lost frames replaced by a redundant copy
+     */
+    public int getRecoveredFrames() {
+        return mRecovered;
+    }
+
+    /**
+     * Updates the jitter estimate with the arrival of a frame and
+     * computes the new target depth from it
+     * @param timestamp - the capture timestamp of the frame
+     * @param arrivalTime - when the frame was received, in nanoseconds
+     */
+    private void updateJitter(int timestamp, long arrivalTime) {
+        long now = (arrivalTime - mStartTime) / 1000000;
+        int arrival = (int)(now * Common.SAMPLE_RATE / 1000);
+        int transit = arrival - timestamp;
+        if (mHaveTransit) {
+            int d = Math.abs(transit - mLastTransit);
+            mJitter += d - ((mJitter + 8) >> 4);
+        }
+        mLastTransit = transit;
+        mLastTimestamp = timestamp;
+        mHaveTransit = true;
+
+        // Keep enough frames to cover a few times the jitter
+        int target = (4 * (mJitter >> 4) + mFrameSamples - 1) / mFrameSamples + 1;
+        // and wait for the redundant copies of the lost frames
+        target = Math.max(target, mRedundantSpan);
+        mTargetFrames = Math.max(MIN_DELAY_FRAMES, Math.min(target, getMaxFrames()));
+    }
+
+    /**
+     * @return true if the frame is too far from the last one received to
+     *         compare their arrival times: the sender paused while the
+     *         buffer ran dry, or it restarted
+     */
+    private boolean isDiscontinuity(int seq, int timestamp, long arrivalTime) {
+        long ceilingNanos = 1000000000L * getMaxFrames() * mFrameSamples / Common.SAMPLE_RATE;
+        if (mUnderrun && arrivalTime - mLastArrival > ceilingNanos)
+            return true;
+        int span = mSlots.length;
+        return Math.abs(Frame.sequenceDiff(seq, mHighestSeq)) > span ||
+                Math.abs((long)timestamp - mLastTimestamp) > (long)span * mFrameSamples;
+    }
+
+    /**
+     * Drops the oldest frames if the buffer holds more audio than the
+     * configured latency ceiling
+     */
+    private void dropAboveCeiling() {
+        if (getDepth() <= getMaxFrames())
+            return;
+
+        while (mCount > 0 && getDepth() > mTargetFrames) {
+            int index = mNextSeq % mSlots.length;
+            if (mFull[index]) {
+                mFull[index] = false;
+                mCount--;
+                mDiscarded++;
+            }
+            mNextSeq = (mNextSeq + 1) % Frame.SEQUENCE_MOD;
+        }
+    }
+
+    private int getMaxFrames() {
+        int max = Common.MAX_PLAYOUT_LATENCY * Common.SAMPLE_RATE / 1000 / mFrameSamples;
+        return Math.max(MIN_DELAY_FRAMES, Math.min(max, mSlots.length));
+    }
+
+    private void clear() {
+        for (int i = 0; i < mFull.length; i++)
+            mFull[i] = false;
+        mCount = 0;
+        mBuffering = true;
+    }
+}
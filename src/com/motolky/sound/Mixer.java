@@ -0,0 +1,280 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+
+/**
+ * This class is a thread that plays the sound of all the players on a
+ * single audio sink, by default an AudioTrack. At each step it asks every
+ * player for a decoded frame, sums the frames, applying the gain of each
+ * player, and writes the result to the sink. Writing to the audio track
+ * blocks while its buffer is full, so the audio track is the clock of all
+ * the players. Other sinks, like files, may not block, in which case the
+ * sound is mixed as fast as it arrives.
+ */
+public class Mixer extends Thread {
+    private static Mixer mixer = null;
+
+    private IAudioSink mAudioSink = null;
+    private final IClock mClock;
+    private final ICodecFactory mCodecFactory;
+    private float mVolume = (float)0.5;
+    private final List<Player> mPlayers = new ArrayList<Player>();
+    private final Lock mLock = new ReentrantLock();
+    private volatile boolean mDataAvailable = false;
+    private boolean mPlaying = false;
+    private volatile boolean mExit = false;
+
+    private final short[] mFrame = new short[Common.AUDIO_BUFFER_LEN];
+    private final int[] mSum = new int[Common.AUDIO_BUFFER_LEN];
+    private final short[] mOut = new short[Common.AUDIO_BUFFER_LEN];
+    private final StageTimer mMixTimer = new StageTimer("decode and mix");
+
+    /**
+     * Constructor
+     * @param audioSink - where to play the sound. It is started when there
+     *             is something to play.
+     * @param clock - the clock of the players of this mixer
+     */
+    protected Mixer(IAudioSink audioSink, IClock clock) {
+        this(audioSink, clock, ICodecFactory.SPEEX);
+    }
+
+    /**
+     * Constructor
+     * @param audioSink - where to play the sound. It is started when there
+     *             is something to play.
+     * @param clock - the clock of the players of this mixer
+     * @param codecFactory - creates the decoders of the players of this mixer
+     */
+    protected Mixer(IAudioSink audioSink, IClock clock, ICodecFactory codecFactory) {
+        mAudioSink = audioSink;
+        mClock = clock;
+        mCodecFactory = codecFactory;
+        mAudioSink.setVolume(mVolume);
+    }
+
+    /**
+     * @return the mixer of the application. It is created the first time it
+     *         is needed and it plays on an AudioTrack.
+     */
+    public static synchronized Mixer getMixer() {
+        if (mixer == null) {
+            mixer = new Mixer(new AudioTrackSink(), IClock.SYSTEM);
+            mixer.start();
+        }
+        return mixer;
+    }
+
+    /**
+     * Replaces the mixer of the application with one that plays on the
+     * given sink. The players keep the mixer they were created with, so
+     * the ones of the old mixer stop playing.
+     * @param audioSink - where to play the sound
+     * @return the new mixer
+     */
+    public static synchronized Mixer createMixer(IAudioSink audioSink) {
+        return createMixer(audioSink, IClock.SYSTEM);
+    }
+
+    /**
+     * Replaces the mixer of the application with one that plays on the
+     * given sink, with its own clock. The players created after this call
+     * play on it and take the arrival time of the frames from that clock.
+     * @param audioSink - where to play the sound
+     * @param clock - the clock of the players
+     * @return the new mixer
+     */
+    public static synchronized Mixer createMixer(IAudioSink audioSink, IClock clock) {
+        return createMixer(audioSink, clock, ICodecFactory.SPEEX);
+    }
+
+    /**
+     * Replaces the mixer of the application with one that plays on the
+     * given sink, with its own clock and decoders. The players created
+     * after this call play on it, take the arrival time of the frames from
+     * that clock and decode with decoders of that factory.
+     * @param audioSink - where to play the sound
+     * @param clock - the clock of the players
+     * @param codecFactory - creates the decoders of the players
+     * @return the new mixer
+     */
+    public static synchronized Mixer createMixer(IAudioSink audioSink, IClock clock,
+                                                 ICodecFactory codecFactory) {
+        if (mixer != null)
+            mixer.exit();
+        mixer = new Mixer(audioSink, clock, codecFactory);
+        mixer.start();
+        return mixer;
+    }
+
+    public IClock getClock() {
+        return mClock;
+    }
+
+    public ICodecFactory getCodecFactory() {
+        return mCodecFactory;
+    }
+
+    /**
+     * Adds a player whose sound will be mixed
+     * @param player
+     */
+    public void addPlayer(Player player) {
+        mLock.lock();
+        mPlayers.add(player);
+        mLock.unlock();
+    }
+
+    /**
+     * Removes a player from the mix
+     * @param player
+     */
+    public void removePlayer(Player player) {
+        mLock.lock();
+        mPlayers.remove(player);
+        mLock.unlock();
+    }
+
+    /**
+     * Called by the players when they received new data. Wakes up the mixer
+     * if it is waiting for data. It does not take any lock, so the receiving
+     * threads never wait for the mixer.
+     */
+    public void dataAvailable() {
+        mDataAvailable = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Sets the volume of the audio track
+     * @param volume - between 0 and 1
+     */
+    public void setVolume(float volume) {
+        mLock.lock();
+        mVolume = volume;
+        mAudioSink.setVolume(volume);
+        mLock.unlock();
+    }
+
+    /**
+     * Stops the thread and releases the audio track
+     */
+    public void exit() {
+        mExit = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * This loop continuously mixes a frame from every player and sends the
+     * result to the audio track.
+     */
+    @Override
+    public void run() {
+        while (!mExit) {
+            // Cleared before mixing, so data that arrives after the mix
+            // is not missed by the wait below
+            mDataAvailable = false;
+
+            int len;
+            mLock.lock();
+            try {
+                len = mix();
+            } finally {
+                mLock.unlock();
+            }
+
+            if (len == 0) {
+                // Wait until a player receives something to play
+                if (mPlaying) {
+                    mAudioSink.pause();
+                    mPlaying = false;
+                }
+                while (!mDataAvailable && !mExit) {
+                    LockSupport.park(this);
+                    if (interrupted()) {
+                        Logger.e(Common.TAG, "The mixer was interrupted");
+                        mExit = true;
+                    }
+                }
+                continue;
+            }
+
+            if (!mPlaying) {
+                mAudioSink.play();
+                mPlaying = true;
+            }
+            mAudioSink.write(mOut, 0, len);
+        }
+
+        mAudioSink.release();
+    }
+
+    /**
+     * Gets a frame from every player and sums them in the output buffer,
+     * saturating the samples that overflow.
+     * @return the number of samples in the output buffer
+     */
+    private int mix() {
+        mMixTimer.begin();
+        int len = 0;
+        // Index the list so no iterator is allocated for every frame
+        for (int p = 0; p < mPlayers.size(); p++) {
+            Player player = mPlayers.get(p);
+            int no = player.readFrame(mFrame);
+            if (no <= 0)
+                continue;
+
+            int gain = player.getGain();
+            for (int i = len; i < no; i++)
+                mSum[i] = 0;
+            for (int i = 0; i < no; i++)
+                mSum[i] += (mFrame[i] * gain) >> Player.GAIN_SHIFT;
+            len = Math.max(len, no);
+        }
+
+        for (int i = 0; i < len; i++) {
+            int sample = mSum[i];
+            if (sample > Short.MAX_VALUE)
+                sample = Short.MAX_VALUE;
+            else if (sample < Short.MIN_VALUE)
+                sample = Short.MIN_VALUE;
+            mOut[i] = (short)sample;
+        }
+        mMixTimer.end();
+        return len;
+    }
+}
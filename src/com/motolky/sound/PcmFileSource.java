@@ -0,0 +1,136 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An audio source that reads the sound from a file. The file contains
+ * either raw 16 bit little endian mono samples, or the same samples in
+ * a WAV file. The sample rate of the file has to be Common.SAMPLE_RATE.
+ * It does not wait between reads, so it produces sound as fast as it is
+ * asked for it.
+ */
+public class PcmFileSource implements IAudioSource {
+    private static final int WAV_HEADER_LEN = 44;
+
+    private final File mFile;
+    private final boolean mLoop;
+    private final byte[] mBytes = new byte[2 * 1024];
+    private InputStream mInput = null;
+    private boolean mStarted = false;
+
+    /**
+     * Constructor
+     * @param file - the file with the samples
+     * @param loop - whether to start again from the beginning of the file
+     *             when its end is reached
+     * @throws IOException
+     */
+    public PcmFileSource(File file, boolean loop) throws IOException {
+        mFile = file;
+        mLoop = loop;
+        open();
+    }
+
+    @Override
+    public void start() {
+        mStarted = true;
+    }
+
+    @Override
+    public void stop() {
+        mStarted = false;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        try {
+            int read = 0;
+            boolean rewound = false;
+            while (read < length) {
+                int bytes = mInput.read(mBytes, 0, Math.min(2 * (length - read), mBytes.length));
+                if (bytes < 0) {
+                    // The end of the file. Start again if asked to, unless the
+                    // file is empty.
+                    if (!mLoop || rewound || !reopen())
+                        break;
+                    rewound = true;
+                    continue;
+                }
+                rewound = false;
+                if (bytes % 2 != 0 && mInput.read(mBytes, bytes, 1) == 1)
+                    bytes++;
+                for (int i = 0; i + 1 < bytes; i += 2)
+                    buffer[offset + read++] = (short)((mBytes[i] & 0xFF) | (mBytes[i + 1] << 8));
+            }
+            return read > 0 ? read : -1;
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            mInput.close();
+        } catch (IOException ioe) {}
+    }
+
+    private void open() throws IOException {
+        mInput = new BufferedInputStream(new FileInputStream(mFile));
+
+        // Skip the header of a WAV file
+        mInput.mark(WAV_HEADER_LEN);
+        byte[] riff = new byte[4];
+        if (mInput.read(riff) == 4 && riff[0] == 'R' && riff[1] == 'I' &&
+                riff[2] == 'F' && riff[3] == 'F')
+            mInput.skip(WAV_HEADER_LEN - 4);
+        else
+            mInput.reset();
+    }
+
+    private boolean reopen() {
+        try {
+            mInput.close();
+            open();
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+}
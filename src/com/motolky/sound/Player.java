@@ -1,208 +1,479 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky.sound;
-
-import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-import android.media.AudioManager;
-import android.media.AudioTrack;
-import android.util.Log;
-
-import com.motolky.Common;
-import com.motolky.communication.IReceiveHandler;
-
-/**
- * This class creates an AudioTrack object and sends sound data
- * to it whenever it receives some audio data.
- */
-public class Player extends Thread implements IReceiveHandler {
-    private static final List<Player> createdPlayers = new LinkedList<Player>();
-    private static float volume = (float)0.5;
-
-    private AudioTrack mAudioTrack = null;
-    private float mMaxVolume;
-    private float mMinVolume;
-    private final Lock mLock = new ReentrantLock();
-    private final Lock mAudioLock = new ReentrantLock();
-
-    private PlayerBuffer mBuffer;
-    private Condition mCondition = mLock.newCondition();
-    private Codec mDecoder = null;
-    private boolean mExit = false;
-
-    protected Player() {
-        int minLen = AudioTrack.getMinBufferSize(Common.SAMPLE_RATE, Common.CHANNEL_CONFIG,
-                Common.AUDIO_FORMAT);
-
-        // Crate the audio track and start it
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL,
-                Common.SAMPLE_RATE, Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT,
-                minLen, AudioTrack.MODE_STREAM);
-        mAudioTrack.play();
-        mMaxVolume = AudioTrack.getMaxVolume();
-        mMinVolume = AudioTrack.getMinVolume();
-        float initialVolume = mMinVolume + (mMaxVolume - mMinVolume) * volume;
-        mAudioTrack.setStereoVolume(initialVolume, initialVolume);
-
-        // Create a decoder for the data the player receives from the outside
-        try
-        {
-            mDecoder = new SoundDecoder();
-            mBuffer = new PlayerBuffer(2 * mDecoder.getSampleSize());
-        } catch (Exception e) {
-            while (true)
-            {
-                Log.e(Common.TAG, "Error creating the encoder");
-                e.printStackTrace();
-            }
-        }
-    }
-
-    /**
-     * This method is called by the peer when data has been received from the
-     * socket.
-     */
-    @Override
-    public void receiveData(byte[] buffer, int bytes) throws IOException {
-        this.mAudioLock.lock();
-        if (this.mAudioTrack == null) {
-          this.mAudioLock.unlock();
-          throw new IOException("The audio track was closed already");
-        }
-        this.mAudioLock.unlock();
-
-        // Insert the data to the buffer. The thread will late pick it up,
-        // decode it and play it.
-        this.mLock.lock();
-        this.mBuffer.insertData(buffer, bytes);
-        this.mCondition.signal();
-        this.mLock.unlock();
-    }
-
-    /**
-     * Factory for creating a player. Internally this class
-     * remembers the players that are currently active in the system.
-     * @return the created player
-     */
-    public static Player getNewPlayer() {
-        Player player = new Player();
-        createdPlayers.add(player);
-        player.start();
-        return player;
-    }
-
-    /**
-     * Removes a player from the list of created players.
-     * @param player - player to remove
-     */
-    public static void deletePlayer(Player player) {
-        createdPlayers.remove(player);
-        player.exit();
-    }
-
-    public static void setVolume(float progress) {
-        volume = progress;
-        for (Player player : createdPlayers)
-            player.adjustVolume();
-    }
-
-    /**
-     * This loop continuously reads data from the buffer of the player,
-     * decodes it and sends it to the audio track object.
-     */
-    @Override
-    public void run() {
-        while (true)
-        {
-            if (mExit)
-                return;
-
-            try
-            {
-                // Ask for a frame from the buffer
-                mCondition.await();
-                mLock.lock();
-                byte[] frame = mBuffer.getFrame();
-                if (frame == null) {
-                    mLock.unlock();
-                    continue;
-                }
-                mLock.unlock();
-
-                // Decode the frame
-                short[] decoded = mDecoder.decodeAndGetDecoded(frame, frame.length);
-                if (decoded == null)
-                    continue;
-
-                // Send the decoded frame to the audio track
-                mAudioLock.lock();
-                if (mAudioTrack != null)
-                    mAudioTrack.write(decoded, 0, decoded.length);
-                mAudioLock.unlock();
-            }
-            catch (InterruptedException e)
-            {
-                mLock.unlock();
-            }
-        }
-    }
-
-    /**
-     * Stops the thread
-     */
-    private void exit() {
-        this.mAudioLock.lock();
-
-        try {
-            this.mAudioTrack.stop();
-            this.mAudioTrack.release();
-            this.mAudioTrack = null;
-            this.mAudioLock.unlock();
-
-            this.mLock.lock();
-            this.mDecoder.exit();
-            this.mExit = true;
-            this.mCondition.signal();
-            this.mLock.unlock();
-        } catch (IllegalStateException localIllegalStateException) {
-            this.mAudioTrack.release();
-        }
-    }
-
-    private void adjustVolume() {
-        this.mAudioLock.lock();
-        float v = mMinVolume + (mMaxVolume - mMinVolume) * volume;
-        mAudioTrack.setStereoVolume(v, v);
-        this.mAudioLock.unlock();
-    }
-}
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+import com.motolky.communication.IReceiveHandler;
+import com.motolky.communication.IReportHandler;
+import com.motolky.communication.Packetizer;
+
+/**
+ * This class receives the sound data of a peer, puts it in a jitter buffer
+ * and decodes it when the mixer asks for a frame. The players do not play
+ * the sound themselves. The mixer plays the sound of all of them on a single
+ * audio track.
+ *
+ * The thread that receives the data only cuts it in frames and passes them
+ * to the mixer thread through a lock free ring, so it never waits for the
+ * mixer. The jitter buffer and the decoder are only used by the mixer thread.
+ *
+ * The decoded sound goes through a time stretcher. When the jitter buffer
+ * holds more sound than its target, the sound is played a few percent
+ * faster until the latency is back to the target, and when it is about to
+ * run dry, it is played slower. This way the latency is recovered without
+ * gaps in the speech.
+ *
+ * A frame that was lost, or that did not arrive in time while the peer was
+ * talking, is concealed by the decoder from the frames before it, so the
+ * playout goes on without a gap. The concealment stops after
+ * MAX_CONCEALED_FRAMES frames in a row, since it would only sound robotic.
+ *
+ * When the peer is silent it only sends silence descriptors. The player then
+ * plays comfort noise at the level of the peer's background noise, until
+ * the voice comes back or the descriptors stop.
+ *
+ * The receiver reports of the peer are not sound. They are handed to the
+ * report handler as soon as they are received.
+ */
+public class Player implements IReceiveHandler {
+    public static final int GAIN_SHIFT = 8;
+    private static final int UNITY_GAIN = 1 << GAIN_SHIFT;
+    private static final int JITTER_BUFFER_FRAMES = 64;
+    private static final int RING_FRAMES = 32;
+    // A descriptor comes every SID_INTERVAL frames, so one may be late or
+    // lost before deciding that the peer stopped sending them
+    private static final int COMFORT_NOISE_FRAMES = 2 * SoundProcessor.SID_INTERVAL;
+    private static final int MAX_CONCEALED_FRAMES = 5;
+
+    private final Lock mLock = new ReentrantLock();
+    private PlayerBuffer mBuffer;
+    private final Frame mReceived = new Frame(new byte[Frame.MAX_PAYLOAD_LEN], 0, 0, 0, 0);
+    private final FrameRing mRing = new FrameRing(RING_FRAMES);
+    private JitterBuffer mJitterBuffer;
+    private SoundDecoder mDecoder = null;
+    private int mFrameSamples = 0;
+    private short[] mDecoded;
+    private TimeStretcher mStretcher;
+    private int mNoiseLevel = 0;
+    private int mComfortFrames = 0;
+    private boolean mTalking = false;
+    private int mConcealedRun = 0;
+    private int mConcealed = 0;
+    private int mNoiseSeed = 12345;
+    private int mGain = UNITY_GAIN;
+    private boolean mMute = false;
+    private volatile boolean mExit = false;
+    private volatile IReportHandler mReportHandler = null;
+    private final StageTimer mReceiveTimer = new StageTimer("receive");
+    private final Mixer mMixer;
+    private final IClock mClock;
+
+    /**
+     * Constructor
+     * @param mixer - the mixer that plays the sound of the player. It also
+     *          gives the arrival time of the frames and the decoder.
+     */
+    protected Player(Mixer mixer) {
+        this(mixer, mixer.getCodecFactory());
+    }
+
+    /**
+     * Constructor
+     * @param mixer - the mixer that plays the sound of the player. It also
+     *          gives the arrival time of the frames.
+     * @param codecFactory - creates the decoder
+     */
+    protected Player(Mixer mixer, ICodecFactory codecFactory) {
+        mMixer = mixer;
+        mClock = mixer.getClock();
+        // Create a decoder for the data the player receives from the outside
+        try
+        {
+            mDecoder = codecFactory.createDecoder();
+            // A datagram link hands over a whole packet at once
+            mBuffer = new PlayerBuffer(Packetizer.MAX_PACKET_LEN + Frame.HEADER_LEN + Frame.MAX_PAYLOAD_LEN);
+            mFrameSamples = mDecoder.getSampleSize();
+            mJitterBuffer = new JitterBuffer(mFrameSamples, JITTER_BUFFER_FRAMES);
+            mDecoded = new short[mFrameSamples];
+            mStretcher = new TimeStretcher(mFrameSamples);
+        } catch (Exception e) {
+            while (true)
+            {
+                Logger.e(Common.TAG, "Error creating the encoder");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * This method is called by the peer when data has been received from the
+     * socket.
+     */
+    @Override
+    public void receiveData(byte[] buffer, int bytes) throws IOException {
+        if (this.mExit)
+            throw new IOException("The player was closed already");
+
+        // Insert the data to the buffer and move the complete frames to the
+        // ring. The mixer will later move them to the jitter buffer.
+        this.mReceiveTimer.begin();
+        long now = this.mClock.nanoTime();
+        this.mBuffer.insertData(buffer, bytes);
+        while (true) {
+            Frame slot = this.mRing.getFreeSlot();
+            Frame frame = slot != null ? slot : this.mReceived;
+            if (!this.mBuffer.getFrame(frame))
+                break;
+            if ((frame.getFlags() & Frame.FLAG_REPORT) != 0) {
+                IReportHandler reportHandler = this.mReportHandler;
+                if (reportHandler != null)
+                    reportHandler.reportReceived(frame);
+                continue;
+            }
+            if (slot == null) {
+                // The mixer is not keeping up. Drop the frame.
+                this.mRing.overflow();
+                continue;
+            }
+            this.mRing.publish(now);
+        }
+        this.mReceiveTimer.end();
+
+        this.mMixer.dataAvailable();
+    }
+
+    /**
+     * Factory for creating a player. The player is added to the mixer.
+     * @return the created player
+     */
+    public static Player getNewPlayer() {
+        Mixer mixer = Mixer.getMixer();
+        Player player = new Player(mixer);
+        mixer.addPlayer(player);
+        return player;
+    }
+
+    /**
+     * Removes a player from the mixer.
+     * @param player - player to remove
+     */
+    public static void deletePlayer(Player player) {
+        player.mMixer.removePlayer(player);
+        player.exit();
+    }
+
+    /**
+     * Sets who gets the receiver reports of the peer
+     * @param reportHandler - the handler, or null to ignore the reports
+     */
+    public void setReportHandler(IReportHandler reportHandler) {
+        this.mReportHandler = reportHandler;
+    }
+
+    public static void setVolume(float progress) {
+        Mixer.getMixer().setVolume(progress);
+    }
+
+    /**
+     * Called by the mixer. Gets the next frame from the jitter buffer and
+     * decodes it. The frame is decoded directly from its jitter buffer slot,
+     * so no memory is allocated.
+     * @param out - where to write the decoded frame
+     * @return the number of samples decoded or 0 if there is nothing to play
+     */
+    public int readFrame(short[] out) {
+        this.mLock.lock();
+        try {
+            if (this.mExit)
+                return 0;
+
+            // Move the frames received since the last call to the jitter buffer
+            Frame received;
+            while ((received = this.mRing.peek()) != null) {
+                this.mJitterBuffer.putFrame(received, this.mRing.peekArrivalTime());
+                this.mRing.release();
+            }
+
+            // Decode until the stretcher has a whole frame to play
+            while (this.mStretcher.available() < this.mFrameSamples) {
+                Frame frame = this.mJitterBuffer.getFrame();
+                int no;
+                if (frame == null) {
+                    // Nothing arrived in time. If the peer was talking, fill
+                    // the gap while the jitter buffer fills up again.
+                    if (!this.mTalking || this.mConcealedRun >= MAX_CONCEALED_FRAMES)
+                        break;
+                    no = conceal();
+                } else if (frame.getLength() == 0) {
+                    no = conceal();
+                } else if ((frame.getFlags() & Frame.FLAG_SID) != 0) {
+                    byte[] data = frame.getData();
+                    if (frame.getLength() >= Frame.SID_PAYLOAD_LEN)
+                        this.mNoiseLevel = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+                    this.mComfortFrames = COMFORT_NOISE_FRAMES;
+                    this.mTalking = false;
+                    no = comfortNoise(this.mDecoded);
+                } else {
+                    this.mComfortFrames = 0;
+                    this.mTalking = true;
+                    this.mConcealedRun = 0;
+                    no = this.mDecoder.decode(frame.getData(), 0, frame.getLength(),
+                                              this.mDecoded, 0);
+                }
+                if (no <= 0)
+                    break;
+                this.mStretcher.addFrame(this.mDecoded, no,
+                        frame == null ? TimeStretcher.MODE_NORMAL : getStretchMode());
+            }
+
+            if (this.mStretcher.available() == 0) {
+                if (this.mComfortFrames == 0)
+                    return 0;
+                this.mComfortFrames--;
+                return comfortNoise(out);
+            }
+            return this.mStretcher.read(out, this.mFrameSamples);
+        } finally {
+            this.mLock.unlock();
+        }
+    }
+
+    /**
+     * Makes up the sound of a missing frame. In a silence the comfort noise
+     * goes on. During speech the decoder extrapolates the last frames, for
+     * at most MAX_CONCEALED_FRAMES frames, after which silence is played.
+     * @return the number of samples written in the decode buffer
+     */
+    private int conceal() {
+        if (!this.mTalking)
+            return comfortNoise(this.mDecoded);
+
+        this.mConcealed++;
+        if (this.mConcealedRun++ < MAX_CONCEALED_FRAMES) {
+            int no = this.mDecoder.decodeLost(this.mDecoded, 0);
+            if (no > 0)
+                return no;
+        }
+        for (int i = 0; i < this.mFrameSamples; i++)
+            this.mDecoded[i] = 0;
+        return this.mFrameSamples;
+    }
+
+    /**
+     * Compares the sound waiting to be played with the target of the jitter
+     * buffer, allowing one frame of difference either way
+     * @return the mode in which the stretcher should add the next frame
+     */
+    private int getStretchMode() {
+        int latency = this.mJitterBuffer.getDepth() * this.mFrameSamples +
+                      this.mStretcher.available();
+        int target = this.mJitterBuffer.getTargetDepth() * this.mFrameSamples;
+        if (latency > target + this.mFrameSamples)
+            return TimeStretcher.MODE_ACCELERATE;
+        if (latency + this.mFrameSamples < target)
+            return TimeStretcher.MODE_EXPAND;
+        return TimeStretcher.MODE_NORMAL;
+    }
+
+    /**
+     * Fills a frame with white noise at the level of the last silence
+     * descriptor. A uniform noise between -a and a has a level of a / sqrt(3).
+     * @param out - where to write the noise
+     * @return the number of samples written
+     */
+    private int comfortNoise(short[] out) {
+        int amplitude = Math.min(this.mNoiseLevel * 7 / 4, Short.MAX_VALUE);
+        int len = Math.min(this.mFrameSamples, out.length);
+        for (int i = 0; i < len; i++) {
+            // A linear congruential generator, so no object is allocated
+            this.mNoiseSeed = this.mNoiseSeed * 1103515245 + 12345;
+            int random = (this.mNoiseSeed >> 16) & 0x7FFF;
+            out[i] = (short)((random - 0x4000) * amplitude >> 14);
+        }
+        return len;
+    }
+
+    /**
+     * Sets how loud this player is in the mix
+     * @param gain - 1 leaves the sound unchanged
+     */
+    public void setGain(float gain) {
+        this.mGain = (int)(gain * UNITY_GAIN);
+    }
+
+    /**
+     * Mutes or unmutes this player. A muted player still consumes its
+     * frames, so it stays in sync with the others.
+     * @param mute
+     */
+    public void setMute(boolean mute) {
+        this.mMute = mute;
+    }
+
+    /**
+     * @return the gain of this player, in 1/2^GAIN_SHIFT units
+     */
+    public int getGain() {
+        return this.mMute ? 0 : this.mGain;
+    }
+
+    /**
+     * @return the number of frames in the jitter buffer
+     */
+    public int getBufferDepth() {
+        this.mLock.lock();
+        int depth = this.mJitterBuffer.getDepth();
+        this.mLock.unlock();
+        return depth;
+    }
+
+    /**
+     * @return the highest sequence number received
+     */
+    public int getHighestSequence() {
+        this.mLock.lock();
+        int seq = this.mJitterBuffer.getHighestSequence();
+        this.mLock.unlock();
+        return seq;
+    }
+
+    /**
+     * @return the interarrival jitter in miliseconds
+     */
+    public int getJitter() {
+        this.mLock.lock();
+        int jitter = this.mJitterBuffer.getJitter();
+        this.mLock.unlock();
+        return jitter;
+    }
+
+    /**
+     * @return the number of frames that arrived too late to be played
+     */
+    public int getLateFrames() {
+        this.mLock.lock();
+        int late = this.mJitterBuffer.getLateFrames();
+        this.mLock.unlock();
+        return late;
+    }
+
+    /**
+     * @return the number of frames dropped to keep the latency down
+     */
+    public int getDiscardedFrames() {
+        this.mLock.lock();
+        int discarded = this.mJitterBuffer.getDiscardedFrames();
+        this.mLock.unlock();
+        return discarded;
+    }
+
+    /**
+     * @return the number of frames dropped because the mixer did not take
+     *         them in time, or because they did not fit in the receive buffer
+     */
+    public int getOverflows() {
+        return this.mRing.getOverflows() + this.mBuffer.getOverflows();
+    }
+
+    /**
+     * @return the number of frames that never arrived
+     */
+    public int getLostFrames() {
+        this.mLock.lock();
+        int lost = this.mJitterBuffer.getLostFrames();
+        this.mLock.unlock();
+        return lost;
+    }
+
+    /**
+     * @return the number of frames received, without the redundant copies
+     */
+    public int getReceivedFrames() {
+        this.mLock.lock();
+        int received = this.mJitterBuffer.getReceivedFrames();
+        this.mLock.unlock();
+        return received;
+    }
+
+    /**
+     * @return the number of lost frames replaced by a redundant copy
+     */
+    public int getRecoveredFrames() {
+        this.mLock.lock();
+        int recovered = this.mJitterBuffer.getRecoveredFrames();
+        this.mLock.unlock();
+        return recovered;
+    }
+
+    /**
+     * @return the number of frames made up by the decoder, for the frames
+     *         that were lost or did not arrive in time
+     */
+    public int getConcealedFrames() {
+        this.mLock.lock();
+        int concealed = this.mConcealed;
+        this.mLock.unlock();
+        return concealed;
+    }
+
+    /**
+     * @return the ratio between the sound played and the sound received.
+     *         Under 1 the player sped up to recover latency.
+     */
+    public float getStretchRatio() {
+        this.mLock.lock();
+        float ratio = this.mStretcher.getStretchRatio();
+        this.mLock.unlock();
+        return ratio;
+    }
+
+    /**
+     * @return how many miliseconds of latency the time stretching removed
+     */
+    public int getRecoveredLatency() {
+        this.mLock.lock();
+        int recovered = this.mStretcher.getRecoveredLatency();
+        this.mLock.unlock();
+        return recovered;
+    }
+
+    /**
+     * Releases the decoder
+     */
+    private void exit() {
+        this.mLock.lock();
+        this.mExit = true;
+        this.mDecoder.exit();
+        this.mLock.unlock();
+    }
+}
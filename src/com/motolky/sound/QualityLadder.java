@@ -0,0 +1,99 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * The levels of quality the sound can be encoded at, from the lowest
+ * bitrate to the highest. The highest level is the default quality of
+ * the encoder.
+ *
+ * Every link uses one level. The sound processor encodes the sound once
+ * for every level that is used by at least one link, so the links that can
+ * carry the highest level are not held back by a weak one, while a single
+ * encoder runs when all the links use the same level.
+ *
+ * Every sound processor has its own ladder, which counts the links that
+ * send its sound at each level. The levels themselves are the same for all.
+ */
+public class QualityLadder
+{
+    public static final int LEVELS = 4;
+    public static final int TOP_LEVEL = LEVELS - 1;
+
+    // The Speex quality of every level and its bitrate in bits per second
+    private static final int[] QUALITIES = { 2, 4, 6, 8 };
+    private static final int[] BITRATES = { 5950, 8000, 11000, 15000 };
+
+    private final int[] mUsers = new int[LEVELS];
+    private volatile int mLevelsInUse = 0;
+
+    /**
+     * @param level - between 0 and TOP_LEVEL
+     * @return the Speex quality of the level
+     */
+    public static int getQuality(int level) {
+        return QUALITIES[level];
+    }
+
+    /**
+     * @param level - between 0 and TOP_LEVEL
+     * @return the bitrate of the level in bits per second
+     */
+    public static int getBitrate(int level) {
+        return BITRATES[level];
+    }
+
+    /**
+     * Tells that a link starts to use a level, so the sound is encoded at it
+     * @param level - between 0 and TOP_LEVEL
+     */
+    public synchronized void acquireLevel(int level) {
+        mUsers[level]++;
+        mLevelsInUse |= 1 << level;
+    }
+
+    /**
+     * Tells that a link does not use a level anymore
+     * @param level - between 0 and TOP_LEVEL
+     */
+    public synchronized void releaseLevel(int level) {
+        if (mUsers[level] == 0)
+            return;
+        if (--mUsers[level] == 0)
+            mLevelsInUse &= ~(1 << level);
+    }
+
+    /**
+     * @return a bit mask with the levels used by at least one link. When no
+     *         link tells its level, only the top level is used.
+     */
+    public int getLevelsInUse() {
+        int levels = mLevelsInUse;
+        return levels == 0 ? 1 << TOP_LEVEL : levels;
+    }
+}
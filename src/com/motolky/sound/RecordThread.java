@@ -1,197 +1,413 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky.sound;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
-import android.util.Log;
-
-import com.motolky.Common;
-import com.motolky.communication.ISendHandler;
-
-/**
- * This class is a thread that creates an AudioRecord object.
- * It continuously reads data from this object and sends it
- * to the handlers that have registered to it.
- */
-public class RecordThread extends Thread {
-    private AudioRecord mAudioRecord = null;
-    private boolean mExit = false;
-    private ISoundProcessor mSoundProcessor = null;
-    private List<ISendHandler> mSendHandlers = null;
-    private final Lock mLock = new ReentrantLock();
-    private boolean mRecord = true;
-
-    /**
-     * Constructor
-     * @param maxBufferLen - the maximum length of the sournd processor
-     */
-    public RecordThread(int maxBufferLen) {
-        mSendHandlers = new ArrayList<ISendHandler>();
-        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
-                Common.SAMPLE_RATE, Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT,
-                AudioRecord.getMinBufferSize(Common.SAMPLE_RATE,
-                        Common.CHANNEL_CONFIG, Common.AUDIO_FORMAT) + 4096);
-        mSoundProcessor = new SoundProcessor(maxBufferLen);
-    }
-
-    /**
-     * Register a handler that wants to receive data from the microphone.
-     * @param sendHandler
-     */
-    public void addSendHandler(ISendHandler sendHandler) {
-        mLock.lock();
-        if (mSendHandlers != null) {
-            mSendHandlers.add(sendHandler);
-            if (mAudioRecord != null && mRecord && mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED)
-                mAudioRecord.startRecording();
-        }
-        mLock.unlock();
-    }
-
-    /**
-     * Unregister a handler
-     * @param sendHandler
-     */
-    public void removeSendHandler(ISendHandler sendHandler) {
-        mLock.lock();
-        if (mSendHandlers != null) {
-            mSendHandlers.remove(sendHandler);
-            if (mSendHandlers.isEmpty() && mAudioRecord != null &&
-                    mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
-                mAudioRecord.stop();
-        }
-        mLock.unlock();
-    }
-
-    /**
-     * End the thread
-     */
-    public void exit() {
-        try {
-            // Stop recording from the microphone
-            mLock.lock();
-            if (mAudioRecord != null) {
-                if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
-                    mAudioRecord.stop();
-                mAudioRecord.release();
-                mAudioRecord = null;
-            }
-
-            mExit = true;
-            mSendHandlers = null;
-            mLock.unlock();
-            this.mSoundProcessor.exit();
-        } catch (Exception e) {
-            Log.e(Common.TAG, e.getMessage());
-        }
-    }
-
-    /**
-     * Thread loop. Read data from the microphone, feed it to the sound
-     * processor, get processsed sound from the sound processor and send it to
-     * the registered handlers.
-     */
-    @Override
-    public void run() {
-        short[] buffer = new short[Common.AUDIO_BUFFER_LEN];
-        byte[] procBuffer = new byte[buffer.length*2];
-        try {
-            while (!mExit) {
-                // Only record if the mic is in recording state
-                while (true) {
-                    mLock.lock();
-                    if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING || mExit) {
-                        mLock.unlock();
-                        break;
-                    }
-                    mLock.unlock();
-                    sleep(500);
-                }
-
-                // Get data from the microphone
-                mLock.lock();
-                int no = mAudioRecord.read(buffer, 0, Common.AUDIO_BUFFER_LEN);
-                mLock.unlock();
-
-                // Feed the data to the sound processor and get some processed sound back
-                mSoundProcessor.addRawSound(buffer, no);
-                no = mSoundProcessor.getProcessedSound(procBuffer, Common.AUDIO_BUFFER_LEN);
-
-                // If there is some processed data available, send it to the handlers
-                if (no > 0)
-                    sendTraffic(procBuffer, no);
-            }
-        } catch (Exception e) {
-            Log.e(Common.TAG, "Exception reading audio record: " + e.getMessage());
-            try {
-                mLock.unlock();
-            } catch (Exception e1) {}
-            exit();
-        }
-    }
-
-    /**
-     * Change the state of the recording. Turn it on/off
-     * @param state
-     */
-    public void setRecordState(boolean state) {
-        mRecord = state;
-        mLock.lock();
-        if (mAudioRecord == null) {
-            mLock.unlock();
-            return;
-        }
-        if (!mRecord) {
-            if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
-                mAudioRecord.stop();
-        } else {
-            if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED &&
-                    !mSendHandlers.isEmpty())
-                mAudioRecord.startRecording();
-        }
-        mLock.unlock();
-    }
-
-    /**
-     * Send data to all the handlers
-     * @param data
-     * @param no
-     */
-    private void sendTraffic(byte[] data, int no) {
-        mLock.lock();
-        for (ISendHandler sendHandler : mSendHandlers)
-            sendHandler.sendData(data, no);
-        mLock.unlock();
-    }
-}
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+import com.motolky.communication.ISendHandler;
+
+/**
+ * This class is a thread that reads sound from an audio source, by
+ * default the microphone. It continuously reads data from the source
+ * and sends it to the handlers that have registered to it.
+ *
+ * The work is split in a pipeline of three stages, each on its own thread:
+ * this thread only captures the sound, an encode thread encodes it and a
+ * send thread hands it to the handlers. The stages are joined by lock free
+ * rings of preallocated blocks, so a spike in encoding or sending does not
+ * delay the next read from the source. Every frame has a deadline of one
+ * frame of sound in every stage, and the misses are reported in the log as
+ * they happen.
+ *
+ * The recording has three states. It is stopped while there is nobody to
+ * send to. When there are handlers but the microphone is off, it is in
+ * standby: the source stays started and the last blocks are kept in a
+ * short pre-roll, but nothing is encoded. When the microphone is turned on,
+ * the pre-roll is sent first, so the first syllable is not cut. The thread
+ * waits on a condition, so it reacts to a state change right away.
+ */
+public class RecordThread extends Thread {
+    private static final int PIPELINE_BLOCKS = 8;
+    private static final int PRE_ROLL_BLOCKS = 2;
+    private static final int STATE_STOPPED = 0;
+    private static final int STATE_STANDBY = 1;
+    private static final int STATE_RECORDING = 2;
+    private static final long BLOCK_NANOS =
+        1000000000L * Common.AUDIO_BUFFER_LEN / Common.SAMPLE_RATE;
+    private static final long FRAME_NANOS =
+        1000000000L * Common.FRAME_LEN / Common.SAMPLE_RATE;
+
+    private IAudioSource mAudioSource = null;
+    private boolean mExit = false;
+    private ISoundProcessor mSoundProcessor = null;
+    private List<ISendHandler> mSendHandlers = null;
+    // Guards the audio source and the state
+    private final Lock mLock = new ReentrantLock();
+    private final Condition mStateChanged = mLock.newCondition();
+    private int mState = STATE_STOPPED;
+    // Guards the send handlers, so sending does not wait for a read
+    private final Lock mHandlersLock = new ReentrantLock();
+    private boolean mRecord = true;
+
+    private final BlockRing<short[]> mCaptured;
+    private final BlockRing<byte[]> mEncoded;
+    private final EncodeThread mEncodeThread;
+    private final SendThread mSendThread;
+    private final IClock mClock;
+
+    // Only used by this thread
+    private final short[][] mPreRoll = new short[PRE_ROLL_BLOCKS][Common.AUDIO_BUFFER_LEN];
+    private final int[] mPreRollLengths = new int[PRE_ROLL_BLOCKS];
+    private final long[] mPreRollTimes = new long[PRE_ROLL_BLOCKS];
+    private int mPreRollFirst = 0;
+    private int mPreRollCount = 0;
+
+    /**
+     * Constructor
+     * @param maxBufferLen - the maximum length of the sournd processor
+     */
+    public RecordThread(int maxBufferLen) {
+        this(maxBufferLen, new AudioRecordSource());
+    }
+
+    /**
+     * Constructor
+     * @param maxBufferLen - the maximum length of the sournd processor
+     * @param audioSource - where to read the sound from
+     */
+    public RecordThread(int maxBufferLen, IAudioSource audioSource) {
+        this(audioSource, new SoundChain(new SoundProcessor(maxBufferLen), maxBufferLen));
+    }
+
+    /**
+     * Constructor
+     * @param audioSource - where to read the sound from
+     * @param soundProcessor - what processes and encodes the sound. A
+     *          SoundChain can be used to add processing stages before the encoder.
+     */
+    public RecordThread(IAudioSource audioSource, ISoundProcessor soundProcessor) {
+        this(audioSource, soundProcessor, IClock.SYSTEM);
+    }
+
+    /**
+     * Constructor
+     * @param audioSource - where to read the sound from
+     * @param soundProcessor - what processes and encodes the sound
+     * @param clock - gives the capture time of the sound. A source that is
+     *          read faster than real time can come with a clock that
+     *          follows the sound.
+     */
+    public RecordThread(IAudioSource audioSource, ISoundProcessor soundProcessor,
+                        IClock clock) {
+        mClock = clock;
+        mSendHandlers = new ArrayList<ISendHandler>();
+        mAudioSource = audioSource;
+        mSoundProcessor = soundProcessor;
+
+        short[][] captured = new short[PIPELINE_BLOCKS][];
+        byte[][] encoded = new byte[PIPELINE_BLOCKS][];
+        for (int i = 0; i < PIPELINE_BLOCKS; i++) {
+            captured[i] = new short[Common.AUDIO_BUFFER_LEN];
+            encoded[i] = new byte[Common.AUDIO_BUFFER_LEN * 2];
+        }
+        mCaptured = new BlockRing<short[]>(captured);
+        mEncoded = new BlockRing<byte[]>(encoded);
+        mEncodeThread = new EncodeThread(mSoundProcessor, mCaptured, mEncoded,
+                                         Common.AUDIO_BUFFER_LEN * 2, FRAME_NANOS);
+        mSendThread = new SendThread(this, mEncoded, FRAME_NANOS, clock);
+    }
+
+    /**
+     * Register a handler that wants to receive data from the microphone.
+     * @param sendHandler
+     */
+    public void addSendHandler(ISendHandler sendHandler) {
+        mLock.lock();
+        mHandlersLock.lock();
+        if (mSendHandlers != null)
+            mSendHandlers.add(sendHandler);
+        mHandlersLock.unlock();
+        updateState();
+        mLock.unlock();
+    }
+
+    /**
+     * Unregister a handler
+     * @param sendHandler
+     */
+    public void removeSendHandler(ISendHandler sendHandler) {
+        mLock.lock();
+        mHandlersLock.lock();
+        if (mSendHandlers != null)
+            mSendHandlers.remove(sendHandler);
+        mHandlersLock.unlock();
+        updateState();
+        mLock.unlock();
+    }
+
+    /**
+     * End the thread
+     */
+    public void exit() {
+        try {
+            // Stop recording from the microphone
+            mLock.lock();
+            if (mAudioSource != null) {
+                if (mAudioSource.isStarted())
+                    mAudioSource.stop();
+                mAudioSource.release();
+                mAudioSource = null;
+            }
+
+            mExit = true;
+            mStateChanged.signal();
+            mHandlersLock.lock();
+            mSendHandlers = null;
+            mHandlersLock.unlock();
+            mLock.unlock();
+
+            // The encoder is released only after the encode stage stopped
+            mSendThread.exit();
+            mEncodeThread.exit();
+            if (mEncodeThread != Thread.currentThread())
+                mEncodeThread.join(BLOCK_NANOS / 1000000 * PIPELINE_BLOCKS);
+            this.mSoundProcessor.exit();
+        } catch (Exception e) {
+            Logger.e(Common.TAG, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the sound processor. By default it is a SoundChain, whose
+     *         stages can be changed while recording.
+     */
+    public ISoundProcessor getSoundProcessor() {
+        return mSoundProcessor;
+    }
+
+    /**
+     * @return the timers of the pipeline stages: encode, send, and the
+     *         time from capture until the handlers got the sound
+     */
+    public StageTimer[] getStageTimers() {
+        return new StageTimer[] { mEncodeThread.getTimer(), mSendThread.getTimer(),
+                                  mSendThread.getLatencyTimer() };
+    }
+
+    /**
+     * @return the number of blocks dropped because the encode stage or the
+     *         send stage did not keep up
+     */
+    public int getPipelineOverflows() {
+        return mCaptured.getOverflows() + mEncoded.getOverflows();
+    }
+
+    /**
+     * Thread loop. Read data from the microphone and pass it to the encode
+     * stage, or keep it in the pre-roll while in standby. The buffers are
+     * allocated once, before the loop starts.
+     */
+    @Override
+    public void run() {
+        short[] scratch = new short[Common.AUDIO_BUFFER_LEN];
+        int lastState = STATE_STOPPED;
+        mEncodeThread.start();
+        mSendThread.start();
+        try {
+            while (true) {
+                // Wait until there is somebody to record for
+                mLock.lock();
+                while (!mExit && mState == STATE_STOPPED)
+                    mStateChanged.await();
+                int state = mState;
+                mLock.unlock();
+                if (mExit)
+                    break;
+
+                if (state != lastState) {
+                    if (state == STATE_RECORDING)
+                        sendPreRoll();
+                    else if (lastState == STATE_RECORDING)
+                        publishFlush();
+                    if (state != STATE_STANDBY)
+                        mPreRollCount = 0;
+                    lastState = state;
+                }
+
+                short[] buffer;
+                if (state == STATE_RECORDING) {
+                    // If the encode stage is behind, the source is still read so
+                    // it does not overrun, but the block is dropped
+                    buffer = mCaptured.getFreeSlot();
+                    if (buffer == null) {
+                        mCaptured.overflow();
+                        buffer = scratch;
+                    }
+                } else {
+                    buffer = nextPreRollSlot();
+                }
+
+                // Get data from the microphone
+                mLock.lock();
+                int no = mAudioSource != null && mState != STATE_STOPPED
+                        ? mAudioSource.read(buffer, 0, Common.AUDIO_BUFFER_LEN) : 0;
+                mLock.unlock();
+                if (no < 0)
+                    throw new IOException("Error " + no + " reading the audio source");
+
+                long time = mClock.nanoTime();
+                if (state == STATE_RECORDING) {
+                    if (buffer != scratch)
+                        mCaptured.publish(no, time);
+                } else {
+                    addPreRoll(no, time);
+                }
+            }
+        } catch (Exception e) {
+            Logger.e(Common.TAG, "Exception reading audio record: " + e.getMessage());
+            try {
+                mLock.unlock();
+            } catch (Exception e1) {}
+            exit();
+        }
+    }
+
+    /**
+     * Change the state of the recording. Turn it on/off
+     * @param state
+     */
+    public void setRecordState(boolean state) {
+        mLock.lock();
+        mRecord = state;
+        updateState();
+        mLock.unlock();
+    }
+
+    /**
+     * Computes the state from the handlers and the microphone button, starts
+     * or stops the source and wakes up the thread. Has to be called with the
+     * lock held.
+     */
+    private void updateState() {
+        mHandlersLock.lock();
+        boolean haveHandlers = mSendHandlers != null && !mSendHandlers.isEmpty();
+        mHandlersLock.unlock();
+
+        int state = STATE_STOPPED;
+        if (!mExit && mAudioSource != null && haveHandlers)
+            state = mRecord ? STATE_RECORDING : STATE_STANDBY;
+
+        if (mAudioSource != null) {
+            if (state == STATE_STOPPED && mAudioSource.isStarted())
+                mAudioSource.stop();
+            else if (state != STATE_STOPPED && !mAudioSource.isStarted())
+                mAudioSource.start();
+        }
+        mState = state;
+        mStateChanged.signal();
+    }
+
+    /**
+     * @return the slot of the pre-roll where the next block is read. The
+     *         oldest block is overwritten when the pre-roll is full.
+     */
+    private short[] nextPreRollSlot() {
+        return mPreRoll[(mPreRollFirst + mPreRollCount) % PRE_ROLL_BLOCKS];
+    }
+
+    private void addPreRoll(int length, long time) {
+        int last = (mPreRollFirst + mPreRollCount) % PRE_ROLL_BLOCKS;
+        mPreRollLengths[last] = length;
+        mPreRollTimes[last] = time;
+        if (mPreRollCount == PRE_ROLL_BLOCKS)
+            mPreRollFirst = (mPreRollFirst + 1) % PRE_ROLL_BLOCKS;
+        else
+            mPreRollCount++;
+    }
+
+    /**
+     * Passes the blocks kept in the pre-roll to the encode stage
+     */
+    private void sendPreRoll() {
+        for (; mPreRollCount > 0; mPreRollCount--) {
+            short[] slot = mCaptured.getFreeSlot();
+            if (slot == null) {
+                mCaptured.overflow();
+            } else {
+                int length = mPreRollLengths[mPreRollFirst];
+                System.arraycopy(mPreRoll[mPreRollFirst], 0, slot, 0, length);
+                mCaptured.publish(length, mPreRollTimes[mPreRollFirst]);
+            }
+            mPreRollFirst = (mPreRollFirst + 1) % PRE_ROLL_BLOCKS;
+        }
+    }
+
+    /**
+     * Sends an empty block through the pipeline. The encoder ends the talk
+     * spurt, and the handlers send what they hold back after it.
+     */
+    private void publishFlush() {
+        if (mCaptured.getFreeSlot() == null)
+            mCaptured.overflow();
+        else
+            mCaptured.publish(0, mClock.nanoTime());
+    }
+
+    /**
+     * Send data to all the handlers. Called by the send stage.
+     * @param data
+     * @param no
+     */
+    void sendTraffic(byte[] data, int no) {
+        mHandlersLock.lock();
+        // Index the list so no iterator is allocated for every frame
+        if (mSendHandlers != null)
+            for (int i = 0; i < mSendHandlers.size(); i++)
+                mSendHandlers.get(i).sendData(data, no);
+        mHandlersLock.unlock();
+    }
+
+    /**
+     * Ask all the handlers to send the data they hold back. Called by the
+     * send stage.
+     */
+    void flushTraffic() {
+        mHandlersLock.lock();
+        if (mSendHandlers != null)
+            for (int i = 0; i < mSendHandlers.size(); i++)
+                mSendHandlers.get(i).flush();
+        mHandlersLock.unlock();
+    }
+}
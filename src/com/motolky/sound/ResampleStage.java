@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.security.InvalidParameterException;
+
+/**
+ * A stage that changes the sample rate of the sound by linear interpolation,
+ * for sources that do not record at the rate of the codec. The position
+ * between the samples is kept from one block to the next, so the blocks
+ * join without clicks.
+ */
+public class ResampleStage implements ISoundStage {
+    private static final int FRACTION_BITS = 16;
+
+    private final long mStep;   // Input samples per output sample, in 1/2^16 units
+    private long mPosition = 0; // Position of the next output sample, relative to the block
+    private short mLast = 0;    // The last sample of the previous block
+
+    /**
+     * Constructor
+     * @param inputRate - the sample rate of the input
+     * @param outputRate - the sample rate of the output
+     * @throws InvalidParameterException if the output rate is more than
+     *          SoundChain.MAX_EXPANSION times the input rate
+     */
+    public ResampleStage(int inputRate, int outputRate) throws InvalidParameterException {
+        if (inputRate <= 0 || outputRate <= 0 ||
+                outputRate > SoundChain.MAX_EXPANSION * inputRate)
+            throw new InvalidParameterException("Unsupported resampling ratio");
+        mStep = ((long)inputRate << FRACTION_BITS) / outputRate;
+    }
+
+    @Override
+    public String getName() {
+        return "resample";
+    }
+
+    /**
+     * @param length - the number of input samples
+     * @return the most samples that a block of that length can give, which
+     *         is ceil(length * outputRate / inputRate), plus one for the
+     *         fraction of a sample carried from the block before
+     */
+    public int getMaxOutputLength(int length) {
+        return (int)(((long)length << FRACTION_BITS) / mStep) + 1;
+    }
+
+    /**
+     * The position -1 is the last sample of the previous block, so the
+     * interpolation can go over the boundary between the blocks. If out is
+     * shorter than getMaxOutputLength(length), the rest of the block is
+     * skipped, so the next block still starts from the last sample of
+     * this one.
+     */
+    @Override
+    public int process(short[] in, int length, short[] out) {
+        if (length <= 0)
+            return 0;
+        long end = (long)(length - 1) << FRACTION_BITS;
+        int no = 0;
+        while (mPosition < end && no < out.length) {
+            int index = (int)(mPosition >> FRACTION_BITS);
+            int fraction = (int)(mPosition & ((1 << FRACTION_BITS) - 1));
+            int first = index < 0 ? mLast : in[index];
+            int second = in[index + 1];
+            out[no++] = (short)(first + (((long)(second - first) * fraction) >> FRACTION_BITS));
+            mPosition += mStep;
+        }
+
+        if (mPosition < end)
+            mPosition = end;
+        mLast = in[length - 1];
+        mPosition -= (long)length << FRACTION_BITS;
+        return no;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * The send stage of the capture pipeline. It takes the encoded frames and
+ * hands them to the send handlers of the record thread. It also measures
+ * how long every frame takes from its capture until it is handed over.
+ */
+class SendThread extends Thread {
+    private final RecordThread mRecordThread;
+    private final BlockRing<byte[]> mIn;
+    private final StageTimer mSendTimer;
+    private final StageTimer mLatencyTimer;
+    private final long mFrameNanos;
+    private final IClock mClock;
+    private volatile boolean mExit = false;
+
+    /**
+     * Constructor
+     * @param recordThread - the thread that owns the send handlers
+     * @param in - the encoded frames. A block of length 0 means that the
+     *          handlers should send what they hold back.
+     * @param frameNanos - the duration of a frame. Handing over the frames
+     *          of a block may take that long, so the first of them is not
+     *          held back by more than a frame.
+     * @param clock - the clock of the capture times
+     */
+    SendThread(RecordThread recordThread, BlockRing<byte[]> in, long frameNanos,
+               IClock clock) {
+        super("send");
+        mClock = clock;
+        mRecordThread = recordThread;
+        mIn = in;
+        mIn.setConsumer(this);
+        mFrameNanos = frameNanos;
+        mSendTimer = new StageTimer("send stage", frameNanos);
+        // The deadline of every frame is set when it is recorded
+        mLatencyTimer = new StageTimer("capture to send", 2 * frameNanos);
+    }
+
+    public StageTimer getTimer() {
+        return mSendTimer;
+    }
+
+    public StageTimer getLatencyTimer() {
+        return mLatencyTimer;
+    }
+
+    public void exit() {
+        mExit = true;
+        mIn.wakeUp();
+    }
+
+    @Override
+    public void run() {
+        while (!mExit) {
+            byte[] block = mIn.peek();
+            if (block == null) {
+                mIn.await();
+                continue;
+            }
+
+            int no = mIn.peekLength();
+            long time = mIn.peekTime();
+            mSendTimer.begin();
+            if (no > 0)
+                mRecordThread.sendTraffic(block, no);
+            else
+                mRecordThread.flushTraffic();
+            mSendTimer.end();
+            mIn.release();
+
+            if (no > 0)
+                recordLatency(mClock.nanoTime() - time);
+        }
+    }
+
+    /**
+     * Records the latency of every frame of a block. The time of the block
+     * is when its last frame was captured, so the frames before it are
+     * older by a frame each. A frame may wait for the rest of its block
+     * to be captured, and then spend a frame in each of the two stages.
+     * @param blockNanos - the time since the block was captured
+     */
+    private void recordLatency(long blockNanos) {
+        int frames = Common.AUDIO_BUFFER_LEN / Common.FRAME_LEN;
+        for (int i = 0; i < frames; i++) {
+            long wait = (frames - 1 - i) * mFrameNanos;
+            mLatencyTimer.record(blockNanos + wait, wait + 2 * mFrameNanos);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * A sound processor made of a chain of stages, like gain, noise gate or
+ * resampling, followed by a final processor that encodes the sound and
+ * puts it in frames. Every block of raw sound goes through the stages in
+ * order, using two buffers that are allocated once and swapped between
+ * the stages.
+ *
+ * The stages can be inserted and removed while the sound is processed.
+ * The list of stages is replaced as a whole when it changes, so processing
+ * a block never takes a lock. Every stage has its own timer, so the time
+ * spent in each stage shows in the log when profiling is enabled.
+ */
+public class SoundChain implements ISoundProcessor {
+    // How many times a stage may increase the number of samples
+    public static final int MAX_EXPANSION = 4;
+
+    private final ISoundProcessor mEncoder;
+    private final int mMaxBlockLen;
+    private final short[] mBufferA;
+    private final short[] mBufferB;
+    private final short[] mChunk;
+    private volatile Stages mStages = new Stages(new ISoundStage[0], new StageTimer[0]);
+
+    /**
+     * The stages and their timers. It is never changed, only replaced.
+     */
+    private static class Stages {
+        final ISoundStage[] stages;
+        final StageTimer[] timers;
+
+        Stages(ISoundStage[] stages, StageTimer[] timers) {
+            this.stages = stages;
+            this.timers = timers;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param encoder - the processor that encodes the output of the last stage
+     * @param maxBlockLen - the maximum number of samples in a block of raw sound
+     */
+    public SoundChain(ISoundProcessor encoder, int maxBlockLen) {
+        mEncoder = encoder;
+        mMaxBlockLen = maxBlockLen;
+        mBufferA = new short[MAX_EXPANSION * maxBlockLen + 1];
+        mBufferB = new short[MAX_EXPANSION * maxBlockLen + 1];
+        mChunk = new short[maxBlockLen];
+    }
+
+    /**
+     * Adds a stage at the end of the chain, before the encoder
+     * @param stage
+     */
+    public synchronized void addStage(ISoundStage stage) {
+        addStage(mStages.stages.length, stage);
+    }
+
+    /**
+     * Inserts a stage in the chain
+     * @param index - the position of the stage. 0 is the first stage.
+     * @param stage
+     */
+    public synchronized void addStage(int index, ISoundStage stage) {
+        Stages old = mStages;
+        index = Math.max(0, Math.min(index, old.stages.length));
+        ISoundStage[] stages = new ISoundStage[old.stages.length + 1];
+        StageTimer[] timers = new StageTimer[old.stages.length + 1];
+        for (int i = 0, j = 0; i < stages.length; i++) {
+            if (i == index) {
+                stages[i] = stage;
+                timers[i] = new StageTimer(stage.getName());
+            } else {
+                stages[i] = old.stages[j];
+                timers[i] = old.timers[j];
+                j++;
+            }
+        }
+        mStages = new Stages(stages, timers);
+    }
+
+    /**
+     * Removes a stage from the chain
+     * @param stage
+     * @return true if the stage was in the chain
+     */
+    public synchronized boolean removeStage(ISoundStage stage) {
+        Stages old = mStages;
+        int index = -1;
+        for (int i = 0; i < old.stages.length; i++)
+            if (old.stages[i] == stage)
+                index = i;
+        if (index < 0)
+            return false;
+
+        ISoundStage[] stages = new ISoundStage[old.stages.length - 1];
+        StageTimer[] timers = new StageTimer[old.stages.length - 1];
+        for (int i = 0, j = 0; i < old.stages.length; i++) {
+            if (i == index)
+                continue;
+            stages[j] = old.stages[i];
+            timers[j] = old.timers[i];
+            j++;
+        }
+        mStages = new Stages(stages, timers);
+        return true;
+    }
+
+    /**
+     * @return the stages currently in the chain, in order
+     */
+    public ISoundStage[] getStages() {
+        return mStages.stages.clone();
+    }
+
+    /**
+     * @param stage
+     * @return the timer of the stage, or null if it is not in the chain
+     */
+    public StageTimer getTimer(ISoundStage stage) {
+        Stages current = mStages;
+        for (int i = 0; i < current.stages.length; i++)
+            if (current.stages[i] == stage)
+                return current.timers[i];
+        return null;
+    }
+
+    /**
+     * @return the processor that encodes the output of the chain
+     */
+    public ISoundProcessor getEncoder() {
+        return mEncoder;
+    }
+
+    /**
+     * Passes the sound through all the stages and gives the result to the
+     * encoder. A stage can give more samples than it got, so the result is
+     * passed to the encoder in blocks of at most maxBlockLen samples.
+     */
+    @Override
+    public void addRawSound(short[] buffer, int nr) {
+        Stages current = mStages;
+        if (current.stages.length == 0 || nr == 0) {
+            mEncoder.addRawSound(buffer, nr);
+            return;
+        }
+
+        short[] in = buffer;
+        int length = Math.min(nr, mMaxBlockLen);
+        for (int i = 0; i < current.stages.length && length > 0; i++) {
+            short[] out = in == mBufferA ? mBufferB : mBufferA;
+            current.timers[i].begin();
+            length = Math.min(current.stages[i].process(in, length, out), out.length);
+            current.timers[i].end();
+            in = out;
+        }
+
+        for (int off = 0; off < length; off += mMaxBlockLen) {
+            int no = Math.min(mMaxBlockLen, length - off);
+            short[] chunk = in;
+            if (off > 0) {
+                System.arraycopy(in, off, mChunk, 0, no);
+                chunk = mChunk;
+            }
+            mEncoder.addRawSound(chunk, no);
+        }
+    }
+
+    @Override
+    public void setCaptureTime(long nanos) {
+        mEncoder.setCaptureTime(nanos);
+    }
+
+    @Override
+    public void endTalkSpurt() {
+        mEncoder.endTalkSpurt();
+    }
+
+    @Override
+    public int getProcessedSound(byte[] buffer, int nr) {
+        return mEncoder.getProcessedSound(buffer, nr);
+    }
+
+    @Override
+    public QualityLadder getQualityLadder() {
+        return mEncoder.getQualityLadder();
+    }
+
+    @Override
+    public void exit() {
+        mEncoder.exit();
+    }
+}
@@ -1,74 +1,177 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky.sound;
-
-import java.security.InvalidParameterException;
-
-/**
- * This class is used for decoding audio data. It is an interface to
- * the speex library. It uses the JNI interface, because we used the C
- * version of speex. It assumes that the data to decode was also encoded
- * with speex.
- */
-public class SoundDecoder extends Codec
-{
-    private int mId = createDecoder();
-
-    static {
-        System.loadLibrary("speex");
-    }
-
-    public SoundDecoder() throws Exception {
-        if (mId < 0)
-            throw new Exception("There is no empty decoder slot");
-        mFrameSize = getDecoderFrameSize(mId);
-    }
-
-    @Override
-    public short[] decodeAndGetDecoded(byte[] data, int no)
-            throws InvalidParameterException {
-        short[] buf = new short[getSampleSize()];
-        if (!decode(this.mId, data, no, buf))
-            return null;
-        return buf;
-    }
-
-    @Override
-    public void exit() {
-        destroyDecoder(this.mId);
-    }
-
-    // TODO: These functions need to be implemented in C
-    private native int createDecoder();
-
-    private native boolean decode(int paramInt1, byte[] paramArrayOfByte, int paramInt2, short[] paramArrayOfShort);
-
-    private native void destroyDecoder(int paramInt);
-
-    private native int getDecoderFrameSize(int paramInt);
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+
+/**
+ * This class is used for decoding audio data. It is an interface to
+ * the speex library. It uses the JNI interface, because we used the C
+ * version of speex. It assumes that the data to decode was also encoded
+ * with speex.
+ *
+ * Every decoder owns its native speex decoder, referred by an opaque handle
+ * and allocated when the decoder is created, so there is no limit on the
+ * number of decoders. The native decoder is only released by exit(). A
+ * decoder that is garbage collected without exit() being called is reported
+ * as a leak, together with the place where it was created, and released.
+ */
+public class SoundDecoder extends Codec
+{
+    private static final AtomicInteger liveDecoders = new AtomicInteger(0);
+
+    private long mHandle = 0;
+    private final Throwable mCreatedAt = new Throwable("Decoder created here");
+
+    public SoundDecoder() throws Exception {
+        loadLibrary();
+        mHandle = createDecoder();
+        if (mHandle == 0)
+            throw new Exception("Could not create a new decoder");
+        liveDecoders.incrementAndGet();
+        mFrameSize = getDecoderFrameSize(mHandle);
+    }
+
+    /**
+     * Constructor for the decoders that do not use speex, like the ones
+     * the tests give instead of it. No native decoder is created, so they
+     * have to override decode() and decodeLost().
+     * @param frameSize - the number of samples in a frame
+     */
+    protected SoundDecoder(int frameSize) {
+        mFrameSize = frameSize;
+    }
+
+    /**
+     * @return the number of decoders that were created and not exited yet
+     */
+    public static int getLiveDecoders() {
+        return liveDecoders.get();
+    }
+
+    @Override
+    public short[] decodeAndGetDecoded(byte[] data, int no)
+            throws InvalidParameterException {
+        short[] buf = new short[getSampleSize()];
+        if (decode(data, 0, no, buf, 0) == 0)
+            return null;
+        return buf;
+    }
+
+    @Override
+    public int decode(byte[] data, int offset, int no, short[] out, int outOffset)
+            throws InvalidParameterException {
+        if (offset < 0 || offset + no > data.length)
+            throw new InvalidParameterException("The data is outside of the input buffer");
+        if (outOffset < 0 || outOffset + getSampleSize() > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+        if (mHandle == 0 || !decode(mHandle, data, offset, no, out, outOffset))
+            return 0;
+        return getSampleSize();
+    }
+
+    /**
+     * Produces the sound of a frame that was lost, from the frames decoded
+     * before it, so the playout continues without a gap
+     * @param out - where to write the samples
+     * @param outOffset - where to start writing in out
+     * @return the number of samples written
+     * @throws InvalidParameterException
+     */
+    public int decodeLost(short[] out, int outOffset) throws InvalidParameterException {
+        if (outOffset < 0 || outOffset + getSampleSize() > out.length)
+            throw new InvalidParameterException("The output buffer is too small");
+        if (mHandle == 0 || !decodeLost(mHandle, out, outOffset))
+            return 0;
+        return getSampleSize();
+    }
+
+    /**
+     * Direct buffers are handed to the native decoder without being copied.
+     * Other buffers take the array based path.
+     */
+    @Override
+    public int decode(ByteBuffer in, int no, ShortBuffer out)
+            throws InvalidParameterException {
+        if (!canPassDirectly(out, in))
+            return super.decode(in, no, out);
+        if (in.remaining() < no)
+            throw new InvalidParameterException("The input buffer has less than " + no + " bytes");
+        if (out.remaining() < getSampleSize())
+            throw new InvalidParameterException("The output buffer is too small");
+
+        if (mHandle == 0 || !decodeDirect(mHandle, in, in.position(), no, out, out.position()))
+            return 0;
+        in.position(in.position() + no);
+        out.position(out.position() + getSampleSize());
+        return getSampleSize();
+    }
+
+    /**
+     * Releases the native decoder. Calling it more than once has no effect.
+     */
+    @Override
+    public synchronized void exit() {
+        if (mHandle == 0)
+            return;
+        destroyDecoder(mHandle);
+        mHandle = 0;
+        liveDecoders.decrementAndGet();
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            if (mHandle != 0) {
+                Logger.e(Common.TAG, "A decoder was never exited", mCreatedAt);
+                exit();
+            }
+        } finally {
+            super.finalize();
+        }
+    }
+
+    // TODO: These functions need to be implemented in C
+    private static native long createDecoder();
+
+    private static native boolean decode(long handle, byte[] data, int offset, int len, short[] out, int outOffset);
+
+    private static native boolean decodeDirect(long handle, ByteBuffer data, int offset, int len, ShortBuffer out, int outOffset);
+
+    private static native boolean decodeLost(long handle, short[] out, int outOffset);
+
+    private static native void destroyDecoder(long handle);
+
+    private static native int getDecoderFrameSize(long handle);
 }
\ No newline at end of file
@@ -1,156 +1,207 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky.sound;
-
-import java.security.InvalidParameterException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-/**
- * This class is used for encoding audio data. It is an interface to
- * the speex library. It uses the JNI interface, because we used the C
- * version of speex.
- */
-public class SoundEncoder extends Codec
-{
-    private static boolean mLibraryLoaded;
-    private static final Lock mLock = new ReentrantLock();
-
-    static {
-        mLibraryLoaded = false;
-        checkLibrary();
-    }
-
-    public SoundEncoder() throws Exception {
-        if (!createEncoder())
-            throw new Exception("Could not creat a new encoder");
-        this.mFrameSize = getEncoderFrameSize();
-    }
-
-    private static void checkLibrary() {
-        mLock.lock();
-        if (mLibraryLoaded)
-        {
-            mLock.unlock();
-            return;
-        }
-
-        System.loadLibrary("speex");
-        mLibraryLoaded = true;
-        mLock.unlock();
-    }
-
-    public static void setComplexity(int complexity)
-    {
-        checkLibrary();
-        mLock.lock();
-        setEncoderComplexity(complexity);
-        mLock.unlock();
-    }
-
-    public static void setDenoise(boolean denoise)
-    {
-        checkLibrary();
-        mLock.lock();
-        setEncoderDenoise(denoise);
-        mLock.unlock();
-    }
-
-    public static void setPreproc(boolean enablePreprocessor)
-    {
-        checkLibrary();
-        mLock.lock();
-        setPreprocessorEnable(enablePreprocessor);
-        mLock.unlock();
-    }
-
-    public static void setQuality(int quality)
-    {
-        checkLibrary();
-        mLock.lock();
-        setEncoderQuality(quality);
-        mLock.unlock();
-    }
-
-    public static void setVAD(boolean enableVAD)
-    {
-        checkLibrary();
-        mLock.lock();
-        setEncoderVAD(enableVAD);
-        mLock.unlock();
-    }
-
-    @Override
-    public byte[] encodeAndGetEncoded(short[] data, int start, int length)
-            throws InvalidParameterException {
-        verifyDataLen(length);
-        byte[] bytes = new byte[2 * this.mFrameSize];
-        short[] shorts = new short[length];
-        System.arraycopy(data, start, shorts, 0, length);
-        mLock.lock();
-        int i = encode(shorts, bytes, bytes.length);
-        mLock.unlock();
-        if (i > 0)
-        {
-            byte[] tmp = new byte[i];
-            System.arraycopy(bytes, 0, tmp, 0, i);
-            return tmp;
-        }
-        return null;
-    }
-
-    @Override
-    public void exit()
-    {
-        checkLibrary();
-        mLock.lock();
-        destroyEncoder();
-        mLock.unlock();
-    }
-
-    // TODO: These functions need to be implemented in C
-    private static native void setPreprocessorEnable(boolean paramBoolean);
-
-    private native boolean createEncoder();
-
-    private native void destroyEncoder();
-
-    private native int encode(short[] paramArrayOfShort, byte[] paramArrayOfByte, int paramInt);
-
-    private static native int getEncoderComplexity();
-
-    private native int getEncoderFrameSize();
-
-    private static native void setEncoderComplexity(int paramInt);
-
-    private static native void setEncoderDenoise(boolean paramBoolean);
-
-    private static native void setEncoderQuality(int paramInt);
-
-    private static native void setEncoderVAD(boolean paramBoolean);
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.security.InvalidParameterException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is used for encoding audio data. It is an interface to
+ * the speex library. It uses the JNI interface, because we used the C
+ * version of speex.
+ *
+ * Every encoder owns its native speex encoder and preprocessor, referred
+ * by an opaque handle. Therefore several encoders with different settings
+ * can encode at the same time. The lock of an encoder only guards its
+ * settings being changed while it encodes.
+ */
+public class SoundEncoder extends Codec
+{
+    private final Lock mLock = new ReentrantLock();
+    private long mHandle = 0;
+
+    public SoundEncoder() throws Exception {
+        loadLibrary();
+        mHandle = createEncoder();
+        if (mHandle == 0)
+            throw new Exception("Could not creat a new encoder");
+        this.mFrameSize = getEncoderFrameSize(mHandle);
+    }
+
+    /**
+     * Constructor for the encoders that do not use speex, like the ones
+     * the tests give instead of it. No native encoder is created, so they
+     * have to override encode().
+     * @param frameSize - the number of samples in a frame
+     */
+    protected SoundEncoder(int frameSize) {
+        this.mFrameSize = frameSize;
+    }
+
+    public void setComplexity(int complexity)
+    {
+        mLock.lock();
+        if (mHandle != 0)
+            setEncoderComplexity(mHandle, complexity);
+        mLock.unlock();
+    }
+
+    public int getComplexity()
+    {
+        mLock.lock();
+        int complexity = mHandle != 0 ? getEncoderComplexity(mHandle) : 0;
+        mLock.unlock();
+        return complexity;
+    }
+
+    public void setDenoise(boolean denoise)
+    {
+        mLock.lock();
+        if (mHandle != 0)
+            setEncoderDenoise(mHandle, denoise);
+        mLock.unlock();
+    }
+
+    public void setPreproc(boolean enablePreprocessor)
+    {
+        mLock.lock();
+        if (mHandle != 0)
+            setPreprocessorEnable(mHandle, enablePreprocessor);
+        mLock.unlock();
+    }
+
+    public void setQuality(int quality)
+    {
+        mLock.lock();
+        if (mHandle != 0)
+            setEncoderQuality(mHandle, quality);
+        mLock.unlock();
+    }
+
+    public void setVAD(boolean enableVAD)
+    {
+        mLock.lock();
+        if (mHandle != 0)
+            setEncoderVAD(mHandle, enableVAD);
+        mLock.unlock();
+    }
+
+    @Override
+    public byte[] encodeAndGetEncoded(short[] data, int start, int length)
+            throws InvalidParameterException {
+        byte[] bytes = new byte[getMaxEncodedSize()];
+        int i = encode(data, start, length, bytes, 0);
+        if (i > 0)
+        {
+            byte[] tmp = new byte[i];
+            System.arraycopy(bytes, 0, tmp, 0, i);
+            return tmp;
+        }
+        return null;
+    }
+
+    @Override
+    public int encode(short[] data, int start, int length, byte[] out, int outOffset)
+            throws InvalidParameterException {
+        verifyDataLen(length);
+        if (start < 0 || start + length > data.length)
+            throw new InvalidParameterException("The samples are outside of the input buffer");
+        if (outOffset < 0 || outOffset >= out.length)
+            throw new InvalidParameterException("The offset is outside of the output buffer");
+        mLock.lock();
+        int i = mHandle != 0 ? encode(mHandle, data, start, out, outOffset, out.length - outOffset) : 0;
+        mLock.unlock();
+        return Math.max(i, 0);
+    }
+
+    /**
+     * Direct buffers are handed to the native encoder without being copied.
+     * Other buffers take the array based path.
+     */
+    @Override
+    public int encode(ShortBuffer in, ByteBuffer out) throws InvalidParameterException {
+        if (!canPassDirectly(in, out))
+            return super.encode(in, out);
+
+        if (in.remaining() < this.mFrameSize)
+            throw new InvalidParameterException("The input buffer has less than " + this.mFrameSize + " samples");
+        mLock.lock();
+        int i = mHandle != 0 ? encodeDirect(mHandle, in, in.position(), out, out.position(), out.remaining()) : 0;
+        mLock.unlock();
+        if (i <= 0)
+            return 0;
+        in.position(in.position() + this.mFrameSize);
+        out.position(out.position() + i);
+        return i;
+    }
+
+    /**
+     * @return the maximum number of bytes an encoded frame can take
+     */
+    public int getMaxEncodedSize()
+    {
+        return 2 * this.mFrameSize;
+    }
+
+    @Override
+    public void exit()
+    {
+        mLock.lock();
+        if (mHandle != 0) {
+            destroyEncoder(mHandle);
+            mHandle = 0;
+        }
+        mLock.unlock();
+    }
+
+    // TODO: These functions need to be implemented in C
+    private static native void setPreprocessorEnable(long handle, boolean enable);
+
+    private static native long createEncoder();
+
+    private static native void destroyEncoder(long handle);
+
+    private static native int encode(long handle, short[] in, int inOffset, byte[] out, int outOffset, int maxLen);
+
+    private static native int encodeDirect(long handle, ShortBuffer in, int inOffset, ByteBuffer out, int outOffset, int maxLen);
+
+    private static native int getEncoderComplexity(long handle);
+
+    private static native int getEncoderFrameSize(long handle);
+
+    private static native void setEncoderComplexity(long handle, int complexity);
+
+    private static native void setEncoderDenoise(long handle, boolean denoise);
+
+    private static native void setEncoderQuality(long handle, int quality);
+
+    private static native void setEncoderVAD(long handle, boolean enable);
 }
\ No newline at end of file
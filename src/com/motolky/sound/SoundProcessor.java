@@ -1,138 +1,436 @@
-/*
-Copyright (c) 2013, Alexandru Sutii
-All rights reserved.
-
-Redistribution and use in source and binary forms, with or without
-modification, are permitted provided that the following conditions are met:
-    * Redistributions of source code must retain the above copyright
-      notice, this list of conditions and the following disclaimer.
-    * Redistributions in binary form must reproduce the above copyright
-      notice, this list of conditions and the following disclaimer in the
-      documentation and/or other materials provided with the distribution.
-    * Neither the name of the author nor the
-      names of its contributors may be used to endorse or promote products
-      derived from this software without specific prior written permission.
-
-THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
-ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
-WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
-DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
-DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
-(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
-LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
-ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
-SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-package com.motolky.sound;
-
-import android.util.Log;
-
-import com.motolky.Common;
-
-/**
- * This class it takes care of encoding audio data.
- * It implements a buffer where raw audio data is added. From that
- * data, it sends frame by frame to the speex encoder.
- * It is than polled for encoded data.
- */
-public class SoundProcessor implements ISoundProcessor {
-    private final byte TERMINATION = 127;
-    private final int MAX_BUFFER_LEN;
-
-    private short[] inBuffer;
-    private int firstIn = 0;
-    private int inBufferLen = 0;
-    private byte[] outBuffer;
-    private int outBufferLen = 0;
-    private int firstOut = 0;
-    private int mSamplesLen = -1;
-
-    private Codec mCodec;
-
-    /**
-     * Constructor
-     * @param maxBufferLen - the maximum size of the processing buffer
-     */
-    public SoundProcessor(int maxBufferLen) {
-        // Create the buffer
-        this.MAX_BUFFER_LEN = maxBufferLen;
-        this.inBuffer = new short[2 * MAX_BUFFER_LEN];
-        this.outBuffer = new byte[4 * MAX_BUFFER_LEN];
-
-        // Create the encoder
-        try
-        {
-          this.mCodec = new SoundEncoder();
-          this.mSamplesLen = this.mCodec.getSampleSize();
-        } catch (Exception e) {
-            Log.e(Common.TAG, "Error creating the encoder");
-            e.printStackTrace();
-        }
-    }
-
-    @Override
-    public void addRawSound(short[] data, int shorts) {
-        // Insert the data in the buffer
-        for (int i = 0; i < shorts; i++)
-            inBuffer[(i + firstIn + inBufferLen)%(2*inBuffer.length)] = data[i];
-        inBufferLen += shorts;
-
-        // Encoded all the available frames in the buffer
-        while (inBufferLen >= mSamplesLen) {
-            short[] in = new short[mSamplesLen];
-            for (int i = 0; i < mSamplesLen; i++)
-                in[i] = inBuffer[(firstIn + i)%(2*MAX_BUFFER_LEN)];
-            firstIn = (firstIn + mSamplesLen) % (2*MAX_BUFFER_LEN);
-            inBufferLen -= mSamplesLen;
-            processSamples(in);
-        }
-    }
-
-    /**
-     * Returns all the encoded frames available
-     */
-    @Override
-    public int getProcessedSound(byte[] data, int maxbytes) {
-        int len = this.outBufferLen;
-        if (len >= 0) {
-            int j = 0;
-            while (true) {
-                if ((j >= maxbytes) || (j >= len))
-                {
-                  this.outBufferLen -= j;
-                  return j;
-                }
-                data[j] = this.outBuffer[this.firstOut];
-                j++;
-                this.firstOut = (1 + this.firstOut) % this.outBuffer.length;
-            }
-        }
-        return 0;
-    }
-
-    @Override
-    public void exit() {
-           this.mCodec.exit();
-    }
-
-    /**
-     * Encodes a frame of sound and copies it in the output buffer
-     * @param samples - the frame to encode
-     */
-    private void processSamples(short[] samples)
-    {
-        byte[] encoded = this.mCodec.encodeAndGetEncoded(samples, 0, samples.length);
-        if (encoded == null)
-            return;
-
-        for (int i = 0; i < encoded.length; i++)
-            this.outBuffer[(this.firstOut + this.outBufferLen + i) %
-                    this.outBuffer.length] = encoded[i];
-        this.outBufferLen += encoded.length;
-
-        for (int j = 0; j < 2; j++)
-            this.outBuffer[(this.firstOut + this.outBufferLen + j) % this.outBuffer.length] = TERMINATION;
-    }
-}
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+
+/**
+ * This class it takes care of encoding audio data.
+ * It implements a buffer where raw audio data is added. From that
+ * data, it sends frame by frame to the speex encoder.
+ * It is than polled for encoded data.
+ *
+ * All the buffers are allocated in the constructor, so encoding a frame
+ * does not allocate any memory.
+ *
+ * When Common.ENABLE_DTX is set, a voice detector looks at every frame
+ * before the encoder. The frames without voice are not encoded. Instead,
+ * a small silence descriptor with the noise level is sent every
+ * SID_INTERVAL frames, so the receivers can play comfort noise. The last
+ * silent frames are kept, and encoded when voice starts, so the beginning
+ * of a word is not cut by the detector.
+ *
+ * Every frame is encoded once for every level of the QualityLadder that a
+ * link uses. The encoder of a lower level is created the first time the
+ * level is used. The copies of a frame follow each other in the output and
+ * are always returned together.
+ *
+ * The timestamps count the samples, but they follow the capture clock:
+ * when the sound is captured later than the samples fed so far account
+ * for, because the recording was in standby or stopped, the timestamp
+ * jumps over the gap. Otherwise the receivers would take the pause for
+ * network delay.
+ *
+ * When the microphone is turned off, the talk spurt ends with a silence
+ * descriptor of level 0, with or without DTX. The receivers then play
+ * silence instead of concealing the frames that stopped coming.
+ *
+ * When Common.ENABLE_REDUNDANCY is set, every voice frame is encoded a second
+ * time by a low quality encoder. The copy follows its frame in the output,
+ * with the same sequence number and timestamp. Each link decides how many
+ * of the copies it sends, and in which packets.
+ */
+public class SoundProcessor implements ISoundProcessor {
+    public static final int SID_INTERVAL = 20;
+    private static final int PRE_ROLL_FRAMES = 3;
+    private static final int REDUNDANT_QUALITY = 2;
+    // Shorter differences between the capture clock and the samples are
+    // taken as scheduling jitter of the capture
+    private static final int MIN_CAPTURE_GAP = Common.SAMPLE_RATE / 10;
+
+    private final int MAX_BUFFER_LEN;
+    private final ICodecFactory mCodecFactory;
+    private final QualityLadder mQualityLadder = new QualityLadder();
+
+    private short[] inBuffer;
+    private int firstIn = 0;
+    private int inBufferLen = 0;
+    private short[] mFrame;
+    private byte[] outBuffer;
+    private int outBufferLen = 0;
+    private int mSamplesLen = -1;
+    private int mMaxEncodedLen = 0;
+    private int mSequence = 0;
+    private int mTimestamp = 0;
+    private boolean mHaveCaptureTime = false;
+    private long mCaptureNanos = 0;
+    private int mSamplesSinceCapture = 0;
+
+    private VoiceDetector mDetector = null;
+    private boolean mTalking = false;
+    private int mFramesSinceSid = 0;
+    private short[][] mPreRoll;
+    private int[] mPreRollTimestamps;
+    private int mPreRollFirst = 0;
+    private int mPreRollCount = 0;
+    private int mSuppressed = 0;
+    private int mDropped = 0;
+
+    private SoundEncoder mCodec;
+    private final SoundEncoder[] mLevelCodecs = new SoundEncoder[QualityLadder.LEVELS];
+    private SoundEncoder mRedundantCodec = null;
+    private final StageTimer mEncodeTimer = new StageTimer("encode");
+
+    /**
+     * Constructor
+     * @param maxBufferLen - the maximum size of the processing buffer
+     */
+    public SoundProcessor(int maxBufferLen) {
+        this(maxBufferLen, ICodecFactory.SPEEX);
+    }
+
+    /**
+     * Constructor
+     * @param maxBufferLen - the maximum size of the processing buffer
+     * @param codecFactory - creates the encoders
+     */
+    public SoundProcessor(int maxBufferLen, ICodecFactory codecFactory) {
+        // Create the buffer
+        this.MAX_BUFFER_LEN = maxBufferLen;
+        this.mCodecFactory = codecFactory;
+        this.inBuffer = new short[2 * MAX_BUFFER_LEN];
+        // Room for the pre-roll frames encoded at once when voice starts,
+        // at every level and with their redundant copies
+        this.outBuffer = new byte[(4 + 2 * PRE_ROLL_FRAMES) * (QualityLadder.LEVELS + 1) *
+                                  MAX_BUFFER_LEN];
+
+        // Create the encoder
+        try
+        {
+          this.mCodec = this.mCodecFactory.createEncoder();
+          this.mCodec.setComplexity(Codec.CODEC_COMPLEXITY);
+          this.mCodec.setVAD(Common.ENABLE_VAD);
+          this.mCodec.setQuality(QualityLadder.getQuality(QualityLadder.TOP_LEVEL));
+          this.mLevelCodecs[QualityLadder.TOP_LEVEL] = this.mCodec;
+          this.mSamplesLen = this.mCodec.getSampleSize();
+          this.mMaxEncodedLen = this.mCodec.getMaxEncodedSize();
+          this.mFrame = new short[this.mSamplesLen];
+          if (Common.ENABLE_REDUNDANCY) {
+              this.mRedundantCodec = this.mCodecFactory.createEncoder();
+              this.mRedundantCodec.setComplexity(Codec.CODEC_COMPLEXITY);
+              this.mRedundantCodec.setQuality(REDUNDANT_QUALITY);
+          }
+          if (Common.ENABLE_DTX) {
+              this.mDetector = new VoiceDetector();
+              this.mPreRoll = new short[PRE_ROLL_FRAMES][this.mSamplesLen];
+              this.mPreRollTimestamps = new int[PRE_ROLL_FRAMES];
+          }
+        } catch (Exception e) {
+            Logger.e(Common.TAG, "Error creating the encoder");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void addRawSound(short[] data, int shorts) {
+        this.mSamplesSinceCapture += shorts;
+
+        // Insert the data in the buffer. Drop what does not fit.
+        if (shorts > inBuffer.length - inBufferLen) {
+            if (this.mDropped == 0)
+                Logger.e(Common.TAG, "The encoder got " + shorts + " samples, more than " +
+                        (inBuffer.length - inBufferLen) + " it has room for. The rest is dropped.");
+            this.mDropped += shorts - (inBuffer.length - inBufferLen);
+            shorts = inBuffer.length - inBufferLen;
+        }
+        int last = (firstIn + inBufferLen) % inBuffer.length;
+        int firstPart = Math.min(shorts, inBuffer.length - last);
+        System.arraycopy(data, 0, inBuffer, last, firstPart);
+        System.arraycopy(data, firstPart, inBuffer, 0, shorts - firstPart);
+        inBufferLen += shorts;
+
+        // Encoded all the available frames in the buffer
+        while (inBufferLen >= mSamplesLen) {
+            if (firstIn + mSamplesLen <= inBuffer.length) {
+                // The frame is contiguous, so encode it in place
+                processSamples(inBuffer, firstIn);
+            } else {
+                firstPart = inBuffer.length - firstIn;
+                System.arraycopy(inBuffer, firstIn, mFrame, 0, firstPart);
+                System.arraycopy(inBuffer, 0, mFrame, firstPart, mSamplesLen - firstPart);
+                processSamples(mFrame, 0);
+            }
+            firstIn = (firstIn + mSamplesLen) % inBuffer.length;
+            inBufferLen -= mSamplesLen;
+        }
+    }
+
+    /**
+     * Moves the timestamp forward by the whole frames that were captured
+     * since the last capture time, but never fed to the processor
+     */
+    @Override
+    public void setCaptureTime(long nanos) {
+        if (this.mHaveCaptureTime) {
+            long expected = this.mCaptureNanos +
+                    this.mSamplesSinceCapture * 1000000000L / Common.SAMPLE_RATE;
+            long gap = (nanos - expected) * Common.SAMPLE_RATE / 1000000000L;
+            if (gap >= MIN_CAPTURE_GAP)
+                this.mTimestamp += (int)(gap - gap % this.mSamplesLen);
+        }
+        this.mHaveCaptureTime = true;
+        this.mCaptureNanos = nanos;
+        this.mSamplesSinceCapture = 0;
+    }
+
+    /**
+     * Drops the samples of the unfinished frame and the silent frames kept
+     * for the next talk spurt, and writes a silence descriptor of level 0
+     */
+    @Override
+    public void endTalkSpurt() {
+        // The descriptor takes the place of the unfinished frame
+        writeSid(this.mTimestamp, 0);
+        if (this.inBufferLen > 0)
+            this.mTimestamp += this.mSamplesLen;
+        this.inBufferLen = 0;
+        this.mTalking = false;
+        this.mFramesSinceSid = 0;
+        // The silence before the next talk spurt is not this one
+        this.mPreRollCount = 0;
+    }
+
+    /**
+     * Returns the encoded frames available. Only whole frames are returned,
+     * so a packet never holds part of a frame, and the copies of a frame
+     * are returned together, unless they do not fit in data at all.
+     */
+    @Override
+    public int getProcessedSound(byte[] data, int maxbytes) {
+        int len = 0;
+        int groupsLen = 0;
+        while (len + Frame.HEADER_LEN <= this.outBufferLen) {
+            int frameLen = Frame.HEADER_LEN + Frame.readLength(this.outBuffer, len);
+            if (len + frameLen > maxbytes)
+                break;
+            len += frameLen;
+            // The copies of a frame end where another frame starts
+            if (len + Frame.HEADER_LEN > this.outBufferLen ||
+                    Frame.readSequence(this.outBuffer, len) !=
+                    Frame.readSequence(this.outBuffer, len - frameLen))
+                groupsLen = len;
+        }
+        if (groupsLen > 0)
+            len = groupsLen;
+        System.arraycopy(this.outBuffer, 0, data, 0, len);
+        this.outBufferLen -= len;
+        System.arraycopy(this.outBuffer, len, this.outBuffer, 0, this.outBufferLen);
+        return len;
+    }
+
+    /**
+     * @return the encoder of the top level of this processor. Its settings
+     *         can be changed without affecting the other encoders.
+     */
+    public SoundEncoder getEncoder() {
+        return this.mCodec;
+    }
+
+    @Override
+    public QualityLadder getQualityLadder() {
+        return this.mQualityLadder;
+    }
+
+    /**
+     * @return the number of frames that were not encoded because they had no voice
+     */
+    public int getSuppressedFrames() {
+        return this.mSuppressed;
+    }
+
+    /**
+     * @return the number of samples dropped because they came in blocks
+     *         longer than the processor was made for
+     */
+    public int getDroppedSamples() {
+        return this.mDropped;
+    }
+
+    @Override
+    public void exit() {
+           for (int i = 0; i < QualityLadder.LEVELS; i++)
+               if (this.mLevelCodecs[i] != null)
+                   this.mLevelCodecs[i].exit();
+           if (this.mRedundantCodec != null)
+               this.mRedundantCodec.exit();
+    }
+
+    /**
+     * Encodes a frame of sound, or handles it as silence
+     * @param samples - the buffer with the frame
+     * @param start - where the frame starts in the buffer
+     */
+    private void processSamples(short[] samples, int start)
+    {
+        int timestamp = this.mTimestamp;
+        this.mTimestamp += this.mSamplesLen;
+        if (this.mDetector == null) {
+            encodeFrame(samples, start, timestamp);
+            return;
+        }
+
+        if (this.mDetector.isVoice(samples, start, this.mSamplesLen)) {
+            if (!this.mTalking) {
+                // Encode the frames just before the voice was detected
+                this.mTalking = true;
+                for (; this.mPreRollCount > 0; this.mPreRollCount--) {
+                    encodeFrame(this.mPreRoll[this.mPreRollFirst], 0,
+                                this.mPreRollTimestamps[this.mPreRollFirst]);
+                    this.mPreRollFirst = (this.mPreRollFirst + 1) % PRE_ROLL_FRAMES;
+                }
+            }
+            encodeFrame(samples, start, timestamp);
+            return;
+        }
+
+        if (this.mTalking) {
+            // Describe the silence right away after the voice stops
+            this.mTalking = false;
+            this.mFramesSinceSid = SID_INTERVAL;
+        }
+        this.mSuppressed++;
+
+        int last = (this.mPreRollFirst + this.mPreRollCount) % PRE_ROLL_FRAMES;
+        System.arraycopy(samples, start, this.mPreRoll[last], 0, this.mSamplesLen);
+        this.mPreRollTimestamps[last] = timestamp;
+        if (this.mPreRollCount == PRE_ROLL_FRAMES)
+            this.mPreRollFirst = (this.mPreRollFirst + 1) % PRE_ROLL_FRAMES;
+        else
+            this.mPreRollCount++;
+
+        if (++this.mFramesSinceSid >= SID_INTERVAL) {
+            this.mFramesSinceSid = 0;
+            writeSid(timestamp, this.mDetector.getNoiseLevel());
+        }
+    }
+
+    /**
+     * Writes a silence descriptor in the output buffer
+     * @param timestamp - the capture timestamp of the silent frame
+     * @param noiseLevel - the level of the background noise
+     */
+    private void writeSid(int timestamp, int noiseLevel)
+    {
+        if (this.outBufferLen + Frame.HEADER_LEN + Frame.SID_PAYLOAD_LEN > this.outBuffer.length)
+            return;
+        int level = Math.min(noiseLevel, 0xFFFF);
+        int offset = this.outBufferLen + Frame.HEADER_LEN;
+        this.outBuffer[offset] = (byte)(level >> 8);
+        this.outBuffer[offset + 1] = (byte)level;
+        Frame.writeHeader(this.outBuffer, this.outBufferLen, Frame.SID_PAYLOAD_LEN,
+                this.mSequence, timestamp, Frame.FLAG_SID);
+        this.mSequence = (this.mSequence + 1) % Frame.SEQUENCE_MOD;
+        this.outBufferLen += Frame.HEADER_LEN + Frame.SID_PAYLOAD_LEN;
+    }
+
+    /**
+     * Encodes a frame of sound directly in the output buffer, after a
+     * frame header, once for every level in use
+     * @param samples - the buffer with the frame to encode
+     * @param start - where the frame starts in the buffer
+     * @param timestamp - the capture timestamp of the frame
+     */
+    private void encodeFrame(short[] samples, int start, int timestamp)
+    {
+        int levels = this.mQualityLadder.getLevelsInUse();
+        int copies = Integer.bitCount(levels);
+        if (this.mRedundantCodec != null)
+            copies++;
+        if (this.outBufferLen + copies * (Frame.HEADER_LEN + this.mMaxEncodedLen) >
+                this.outBuffer.length) {
+            Logger.e(Common.TAG, "The encoded sound was not consumed, dropping a frame");
+            return;
+        }
+
+        int encoded = 0;
+        for (int level = 0; level < QualityLadder.LEVELS; level++) {
+            if ((levels & (1 << level)) == 0)
+                continue;
+            SoundEncoder codec = getLevelCodec(level);
+            if (codec == null)
+                continue;
+
+            this.mEncodeTimer.begin();
+            int len = codec.encode(samples, start, this.mSamplesLen,
+                    this.outBuffer, this.outBufferLen + Frame.HEADER_LEN);
+            this.mEncodeTimer.end();
+            if (len <= 0)
+                continue;
+
+            Frame.writeHeader(this.outBuffer, this.outBufferLen, len, this.mSequence, timestamp, 0);
+            Frame.writeLevel(this.outBuffer, this.outBufferLen, level);
+            this.outBufferLen += Frame.HEADER_LEN + len;
+            encoded++;
+        }
+        if (encoded == 0)
+            return;
+
+        if (this.mRedundantCodec != null) {
+            int len = this.mRedundantCodec.encode(samples, start, this.mSamplesLen,
+                    this.outBuffer, this.outBufferLen + Frame.HEADER_LEN);
+            if (len > 0) {
+                Frame.writeHeader(this.outBuffer, this.outBufferLen, len, this.mSequence,
+                        timestamp, Frame.FLAG_REDUNDANT);
+                this.outBufferLen += Frame.HEADER_LEN + len;
+            }
+        }
+        this.mSequence = (this.mSequence + 1) % Frame.SEQUENCE_MOD;
+    }
+
+    /**
+     * @return the encoder of a level, created if it is the first time the
+     *         level is used, or null if it could not be created
+     */
+    private SoundEncoder getLevelCodec(int level)
+    {
+        if (this.mLevelCodecs[level] == null) {
+            try {
+                SoundEncoder codec = this.mCodecFactory.createEncoder();
+                codec.setComplexity(Codec.CODEC_COMPLEXITY);
+                codec.setVAD(Common.ENABLE_VAD);
+                codec.setQuality(QualityLadder.getQuality(level));
+                this.mLevelCodecs[level] = codec;
+            } catch (Exception e) {
+                Logger.e(Common.TAG, "Error creating the encoder of level " + level);
+                return null;
+            }
+        }
+        return this.mLevelCodecs[level];
+    }
+}
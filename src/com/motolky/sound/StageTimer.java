@@ -0,0 +1,245 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+import com.motolky.Logger;
+
+/**
+ * This class measures how long a processing stage takes for every frame and
+ * how much memory it allocates, so that the stages can be checked against the
+ * real time budget of a frame on the phone itself. The measurements are only
+ * done when Common.ENABLE_PROFILING is set. Every REPORT_FRAMES frames the
+ * averages and a histogram of the times are written to the log and the
+ * counters start again.
+ *
+ * A timer can also have a deadline. Then the times are always measured, even
+ * when profiling is off, and a frame that takes longer than its deadline is
+ * counted and reported in the log right away. To keep a slow phone from
+ * flooding the log, at most one miss is logged every MISS_LOG_INTERVAL
+ * miliseconds, together with the misses that were not logged.
+ *
+ * A timer is meant to be used by a single thread.
+ */
+public class StageTimer {
+    private static final int REPORT_FRAMES = 500;
+    private static final long MISS_LOG_INTERVAL = 1000;
+    // The upper bounds of the histogram buckets, in miliseconds. The last
+    // bucket holds everything above.
+    private static final int[] BUCKET_LIMITS = { 1, 2, 5, 10, 20, 40, 80 };
+
+    private final String mName;
+    private final long mDeadlineNanos;
+    private final boolean mEnabled;
+    private long mStart = 0;
+    private int mAllocStart = 0;
+    private boolean mRunning = false;
+
+    private int mFrames = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+    private long mTotalAllocated = 0;
+    private int mMisses = 0;
+    private int mUnloggedMisses = 0;
+    private long mLastMissLog = 0;
+    private final int[] mHistogram = new int[BUCKET_LIMITS.length + 1];
+
+    private long mAverageNanos = 0;
+    private long mReportedMaxNanos = 0;
+    private long mAllocatedPerFrame = 0;
+    private final int[] mReportedHistogram = new int[BUCKET_LIMITS.length + 1];
+    private volatile long mTotalMisses = 0;
+
+    static {
+        if (Common.ENABLE_PROFILING)
+            AllocationCounter.start();
+    }
+
+    /**
+     * Constructor
+     * @param name - the name of the stage, used in the log
+     */
+    public StageTimer(String name) {
+        this(name, 0);
+    }
+
+    /**
+     * Constructor
+     * @param name - the name of the stage, used in the log
+     * @param deadlineNanos - how long the stage may take for a frame, or 0
+     *             if it has no deadline
+     */
+    public StageTimer(String name, long deadlineNanos) {
+        mName = name;
+        mDeadlineNanos = deadlineNanos;
+        mEnabled = Common.ENABLE_PROFILING || deadlineNanos > 0;
+    }
+
+    /**
+     * Marks the beginning of the processing of a frame
+     */
+    public void begin() {
+        if (!mEnabled)
+            return;
+        mRunning = true;
+        if (Common.ENABLE_PROFILING)
+            mAllocStart = AllocationCounter.getThreadAllocSize();
+        mStart = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the processing of a frame
+     */
+    public void end() {
+        if (!mRunning)
+            return;
+        long nanos = System.nanoTime() - mStart;
+        if (Common.ENABLE_PROFILING)
+            mTotalAllocated += AllocationCounter.getThreadAllocSize() - mAllocStart;
+        mRunning = false;
+        record(nanos);
+    }
+
+    /**
+     * Adds a time measured by the caller, for example the time a frame
+     * spent in the whole pipeline
+     * @param nanos - the time spent on a frame
+     */
+    public void record(long nanos) {
+        record(nanos, mDeadlineNanos);
+    }
+
+    /**
+     * Adds a time measured by the caller, for a frame with a deadline of
+     * its own
+     * @param nanos - the time spent on a frame
+     * @param deadlineNanos - how long the frame could take, or 0 if it
+     *             has no deadline
+     */
+    public void record(long nanos, long deadlineNanos) {
+        if (!mEnabled)
+            return;
+        mFrames++;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        if (deadlineNanos > 0 && nanos > deadlineNanos)
+            missed(nanos, deadlineNanos);
+
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length && millis >= BUCKET_LIMITS[bucket])
+            bucket++;
+        mHistogram[bucket]++;
+
+        if (mFrames == REPORT_FRAMES)
+            report();
+    }
+
+    /**
+     * @return the average time spent on a frame, over the last report period
+     */
+    public long getAverageNanos() {
+        return mAverageNanos;
+    }
+
+    /**
+     * @return the longest time spent on a frame, over the last report period
+     */
+    public long getMaxNanos() {
+        return mReportedMaxNanos;
+    }
+
+    /**
+     * @return the average number of bytes allocated for a frame, over the
+     *         last report period
+     */
+    public long getAllocatedPerFrame() {
+        return mAllocatedPerFrame;
+    }
+
+    /**
+     * @return the number of frames in every bucket of the histogram, over
+     *         the last report period. The buckets end at 1, 2, 5, 10, 20,
+     *         40 and 80 ms, and the last one holds the longer times.
+     */
+    public int[] getHistogram() {
+        return mReportedHistogram;
+    }
+
+    /**
+     * @return the number of frames that took longer than their deadline,
+     *         since the timer was created. It is updated with every frame.
+     */
+    public long getDeadlineMisses() {
+        return mTotalMisses;
+    }
+
+    private void missed(long nanos, long deadlineNanos) {
+        mMisses++;
+        mTotalMisses++;
+        mUnloggedMisses++;
+        long now = System.nanoTime() / 1000000;
+        if (now - mLastMissLog < MISS_LOG_INTERVAL && mLastMissLog != 0)
+            return;
+        Logger.e(Common.TAG, mName + " took " + nanos + " ns for a frame with a deadline of " +
+                deadlineNanos + " ns (" + mUnloggedMisses + " misses since the last report, " +
+                mTotalMisses + " in total)");
+        mLastMissLog = now;
+        mUnloggedMisses = 0;
+    }
+
+    private void report() {
+        mAverageNanos = mTotalNanos / mFrames;
+        mReportedMaxNanos = mMaxNanos;
+        mAllocatedPerFrame = mTotalAllocated / mFrames;
+        System.arraycopy(mHistogram, 0, mReportedHistogram, 0, mHistogram.length);
+
+        if (Common.ENABLE_PROFILING) {
+            StringBuilder histogram = new StringBuilder();
+            for (int i = 0; i < mHistogram.length; i++) {
+                if (i > 0)
+                    histogram.append(' ');
+                histogram.append(mHistogram[i]);
+            }
+            Logger.d(Common.TAG, mName + ": " + mAverageNanos + " ns/frame (max " +
+                    mReportedMaxNanos + " ns), " + mAllocatedPerFrame + " bytes/frame, " +
+                    "histogram [" + histogram + "]");
+        }
+        if (Common.ENABLE_PROFILING && mMisses > 0)
+            Logger.d(Common.TAG, mName + " missed the deadline of " + mMisses +
+                    " of the last " + mFrames + " frames");
+
+        mFrames = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mTotalAllocated = 0;
+        mMisses = 0;
+        for (int i = 0; i < mHistogram.length; i++)
+            mHistogram[i] = 0;
+    }
+}
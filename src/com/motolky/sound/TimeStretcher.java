@@ -0,0 +1,246 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import com.motolky.Common;
+
+/**
+ * This class changes the speed of the decoded sound of a player by a few
+ * percent, without changing its pitch, so the latency of the player can be
+ * brought back to its target without dropping whole frames.
+ *
+ * It works like WSOLA on one frame at a time: it finds the pitch period of
+ * the frame by correlating the frame with itself, and then it removes one
+ * period (to speed up) or repeats one period (to slow down), cross fading
+ * the joint. A frame is only changed when this is hard to hear: when it is
+ * much quieter than the average, or when it is so periodic that one period
+ * more or less is not noticed. Between two changes at least MIN_GAP_FRAMES
+ * frames are played unchanged, which keeps the speed change small.
+ *
+ * The stretched sound is kept in a FIFO, from which the mixer takes frames
+ * of the usual size. All the buffers are allocated in the constructor.
+ * This class is not thread safe.
+ */
+public class TimeStretcher {
+    public static final int MODE_NORMAL = 0;
+    public static final int MODE_ACCELERATE = 1;
+    public static final int MODE_EXPAND = 2;
+
+    private static final int MIN_PERIOD = Common.SAMPLE_RATE / 400;
+    private static final int MAX_PERIOD = Common.SAMPLE_RATE / 100;
+    private static final double MIN_CORRELATION = 0.85;
+    private static final int QUIET_RATIO = 4;
+    private static final int MIN_GAP_FRAMES = 4;
+
+    private final short[] mFifo;
+    private int mFirst = 0;
+    private int mLength = 0;
+
+    private long mAverageEnergy = 0;
+    private int mFramesSinceChange = MIN_GAP_FRAMES;
+
+    private long mInputSamples = 0;
+    private long mOutputSamples = 0;
+    private int mAccelerations = 0;
+    private int mExpansions = 0;
+
+    /**
+     * Constructor
+     * @param frameSamples - the number of samples in a decoded frame
+     */
+    public TimeStretcher(int frameSamples) {
+        mFifo = new short[4 * frameSamples + MAX_PERIOD];
+    }
+
+    /**
+     * Adds a decoded frame to the FIFO, changing its length if asked and if
+     * the frame allows it
+     * @param frame - the decoded samples
+     * @param length - the number of samples
+     * @param mode - MODE_NORMAL, MODE_ACCELERATE or MODE_EXPAND
+     * @return the number of samples added to the FIFO
+     */
+    public int addFrame(short[] frame, int length, int mode) {
+        length = Math.min(length, mFifo.length - mLength - MAX_PERIOD);
+        if (length <= 0)
+            return 0;
+        mInputSamples += length;
+
+        long energy = 0;
+        for (int i = 0; i < length; i++)
+            energy += frame[i] * frame[i];
+        energy /= length;
+        mAverageEnergy += (energy - mAverageEnergy) / 16;
+
+        mFramesSinceChange++;
+        if (mode == MODE_NORMAL || mFramesSinceChange < MIN_GAP_FRAMES ||
+                length < 2 * MIN_PERIOD)
+            return append(frame, 0, length);
+
+        boolean quiet = energy * QUIET_RATIO < mAverageEnergy;
+        int period = findPeriod(frame, length, quiet);
+        if (period == 0)
+            return append(frame, 0, length);
+
+        mFramesSinceChange = 0;
+        if (mode == MODE_ACCELERATE) {
+            mAccelerations++;
+            return accelerate(frame, length, period);
+        }
+        mExpansions++;
+        return expand(frame, length, period);
+    }
+
+    /**
+     * @return the number of samples in the FIFO
+     */
+    public int available() {
+        return mLength;
+    }
+
+    /**
+     * Takes samples out of the FIFO
+     * @param out - where to copy the samples
+     * @param max - the maximum number of samples to take
+     * @return the number of samples copied
+     */
+    public int read(short[] out, int max) {
+        int no = Math.min(max, mLength);
+        int firstPart = Math.min(no, mFifo.length - mFirst);
+        System.arraycopy(mFifo, mFirst, out, 0, firstPart);
+        System.arraycopy(mFifo, 0, out, firstPart, no - firstPart);
+        mFirst = (mFirst + no) % mFifo.length;
+        mLength -= no;
+        return no;
+    }
+
+    /**
+     * @return the ratio between the samples played and the samples decoded.
+     *         Above 1 the sound was slowed down, under 1 it was sped up.
+     */
+    public float getStretchRatio() {
+        return mInputSamples == 0 ? 1 : (float)mOutputSamples / mInputSamples;
+    }
+
+    /**
+     * @return how many miliseconds of latency were removed by speeding up,
+     *         minus the ones added by slowing down
+     */
+    public int getRecoveredLatency() {
+        return (int)((mInputSamples - mOutputSamples) * 1000 / Common.SAMPLE_RATE);
+    }
+
+    public int getAccelerations() {
+        return mAccelerations;
+    }
+
+    public int getExpansions() {
+        return mExpansions;
+    }
+
+    /**
+     * Finds the period with the highest normalized correlation between two
+     * consecutive periods of the frame
+     * @return the period, or 0 if changing this frame would be audible
+     */
+    private int findPeriod(short[] frame, int length, boolean quiet) {
+        int maxPeriod = Math.min(MAX_PERIOD, length / 2);
+        int bestPeriod = 0;
+        double bestCorrelation = -1;
+        for (int period = MIN_PERIOD; period <= maxPeriod; period++) {
+            long cross = 0;
+            long first = 0;
+            long second = 0;
+            for (int i = 0; i < period; i++) {
+                int a = frame[i];
+                int b = frame[i + period];
+                cross += a * b;
+                first += a * a;
+                second += b * b;
+            }
+            if (first == 0 || second == 0)
+                continue;
+            double correlation = cross / Math.sqrt((double)first * second);
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                bestPeriod = period;
+            }
+        }
+
+        if (quiet)
+            return bestPeriod != 0 ? bestPeriod : MIN_PERIOD;
+        return bestCorrelation >= MIN_CORRELATION ? bestPeriod : 0;
+    }
+
+    /**
+     * Removes the second period of the frame, cross fading the first
+     * period into it
+     */
+    private int accelerate(short[] frame, int length, int period) {
+        int added = crossFade(frame, 0, period, period);
+        added += append(frame, 2 * period, length - 2 * period);
+        return added;
+    }
+
+    /**
+     * Repeats the first period of the frame, cross fading the second
+     * period into the repetition
+     */
+    private int expand(short[] frame, int length, int period) {
+        int added = append(frame, 0, period);
+        added += crossFade(frame, period, 0, period);
+        added += append(frame, period, length - period);
+        return added;
+    }
+
+    /**
+     * Appends a segment that fades out from one position of the frame
+     * and fades in from another
+     */
+    private int crossFade(short[] frame, int fadeOut, int fadeIn, int length) {
+        int last = (mFirst + mLength) % mFifo.length;
+        for (int i = 0; i < length; i++) {
+            int sample = (frame[fadeOut + i] * (length - i) + frame[fadeIn + i] * i) / length;
+            mFifo[last] = (short)sample;
+            last = (last + 1) % mFifo.length;
+        }
+        mLength += length;
+        mOutputSamples += length;
+        return length;
+    }
+
+    private int append(short[] frame, int start, int length) {
+        int last = (mFirst + mLength) % mFifo.length;
+        int firstPart = Math.min(length, mFifo.length - last);
+        System.arraycopy(frame, start, mFifo, last, firstPart);
+        System.arraycopy(frame, start + firstPart, mFifo, 0, length - firstPart);
+        mLength += length;
+        mOutputSamples += length;
+        return length;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+/**
+ * This class decides whether a frame of sound contains voice, from its
+ * energy compared to the background noise. The level of the background
+ * noise is followed continuously: it drops quickly when the sound gets
+ * quieter and rises slowly during silence, so that speech does not raise it.
+ *
+ * After the last frame with voice, the detector keeps reporting voice for a
+ * few more frames (the hangover), so the ends of the words are not cut.
+ */
+public class VoiceDetector {
+    // The energy has to be this many times the noise energy (about 9 dB)
+    private static final int VOICE_RATIO = 8;
+    // Below this energy a frame is never voice (a level of about 100)
+    private static final long MIN_VOICE_ENERGY = 100 * 100;
+    private static final long MIN_NOISE_ENERGY = 10 * 10;
+    private static final int HANGOVER_FRAMES = 10;
+
+    private long mNoiseEnergy = MIN_NOISE_ENERGY;
+    private int mHangover = 0;
+
+    /**
+     * Analyzes a frame of sound
+     * @param samples - the buffer with the frame
+     * @param start - where the frame starts
+     * @param length - the number of samples in the frame
+     * @return true if the frame has voice, or is in the hangover after voice
+     */
+    public boolean isVoice(short[] samples, int start, int length) {
+        long energy = 0;
+        for (int i = start; i < start + length; i++)
+            energy += samples[i] * samples[i];
+        energy /= length;
+
+        boolean voice = energy > MIN_VOICE_ENERGY && energy > VOICE_RATIO * mNoiseEnergy;
+        if (energy < mNoiseEnergy)
+            mNoiseEnergy = (7 * mNoiseEnergy + energy) / 8;
+        else if (!voice)
+            mNoiseEnergy += (energy - mNoiseEnergy) / 64;
+        else
+            mNoiseEnergy += (energy - mNoiseEnergy) / 1024;
+        mNoiseEnergy = Math.max(mNoiseEnergy, MIN_NOISE_ENERGY);
+
+        if (voice) {
+            mHangover = HANGOVER_FRAMES;
+            return true;
+        }
+        if (mHangover > 0) {
+            mHangover--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the root mean square level of the background noise
+     */
+    public int getNoiseLevel() {
+        return (int)Math.sqrt(mNoiseEnergy);
+    }
+}
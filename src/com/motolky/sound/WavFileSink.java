@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.motolky.Common;
+
+/**
+ * An audio sink that writes the sound in a WAV file. It does not wait
+ * between writes, so it consumes sound as fast as it is given to it.
+ */
+public class WavFileSink implements IAudioSink {
+    private static final int WAV_HEADER_LEN = 44;
+
+    private final RandomAccessFile mFile;
+    private final byte[] mBytes = new byte[2 * 1024];
+    private int mDataLen = 0;
+    private float mVolume = 1;
+
+    public WavFileSink(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        writeHeader();
+    }
+
+    @Override
+    public void play() {
+    }
+
+    @Override
+    public void pause() {
+    }
+
+    @Override
+    public int write(short[] buffer, int offset, int length) {
+        try {
+            int written = 0;
+            while (written < length) {
+                int no = Math.min(length - written, mBytes.length / 2);
+                for (int i = 0; i < no; i++) {
+                    int sample = (int)(buffer[offset + written + i] * mVolume);
+                    mBytes[2 * i] = (byte)sample;
+                    mBytes[2 * i + 1] = (byte)(sample >> 8);
+                }
+                mFile.write(mBytes, 0, 2 * no);
+                written += no;
+            }
+            mDataLen += 2 * length;
+            return length;
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        mVolume = volume;
+    }
+
+    /**
+     * Writes the final sizes in the header and closes the file
+     */
+    @Override
+    public void release() {
+        try {
+            mFile.seek(0);
+            writeHeader();
+            mFile.close();
+        } catch (IOException ioe) {}
+    }
+
+    private void writeHeader() throws IOException {
+        mFile.writeBytes("RIFF");
+        writeInt(WAV_HEADER_LEN - 8 + mDataLen);
+        mFile.writeBytes("WAVEfmt ");
+        writeInt(16);                       // Size of the fmt chunk
+        writeShort(1);                      // PCM
+        writeShort(1);                      // Mono
+        writeInt(Common.SAMPLE_RATE);
+        writeInt(2 * Common.SAMPLE_RATE);   // Bytes per second
+        writeShort(2);                      // Bytes per sample
+        writeShort(16);                     // Bits per sample
+        mFile.writeBytes("data");
+        writeInt(mDataLen);
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value);
+        writeShort(value >> 16);
+    }
+
+    private void writeShort(int value) throws IOException {
+        mFile.write(value & 0xFF);
+        mFile.write((value >> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.motolky.communication.Device;
+import com.motolky.communication.IConnectNotifiable;
+import com.motolky.communication.IConnectable;
+import com.motolky.communication.ILink;
+import com.motolky.communication.ServerThread;
+import com.motolky.communication.TcpTransport;
+import com.motolky.sound.FakeCodecFactory;
+import com.motolky.sound.IAudioSource;
+import com.motolky.sound.IClock;
+import com.motolky.sound.Mixer;
+import com.motolky.sound.Player;
+import com.motolky.sound.RecordThread;
+import com.motolky.sound.SoundProcessor;
+import com.motolky.sound.TestPlayers;
+import com.motolky.sound.ToneSource;
+
+/**
+ * Connects two peers over TCP on 127.0.0.1, each with its own record
+ * thread playing a tone in real time. One peer connects like a client, the
+ * other is created by a server thread. The codecs are the fake ones, so
+ * the test runs without speex.
+ */
+public class PeerTest extends TestCase {
+    private static final int FRAMES = 25;           // Half a second of sound
+    private static final long TIMEOUT = 5000;       // miliseconds
+
+    private final Notifications mNotifications = new Notifications();
+    private Mixer mMixer;
+    private RecordThread mClientRecorder;
+    private RecordThread mServerRecorder;
+    private ServerThread mServer;
+    private Peer mClient;
+    private volatile ILink mClientLink = null;
+    private int mPort;
+
+    /**
+     * Remembers the connections and disconnections of the peers
+     */
+    private static class Notifications implements IConnectNotifiable {
+        private final List<Peer> mConnected = new ArrayList<Peer>();
+        private final List<Peer> mDisconnected = new ArrayList<Peer>();
+
+        @Override
+        public synchronized void connected(Peer peer) {
+            mConnected.add(peer);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void disconnected(Peer peer) {
+            mDisconnected.add(peer);
+            notifyAll();
+        }
+
+        /**
+         * @return the connected peers, once there are at least count of them
+         */
+        synchronized List<Peer> waitConnected(int count) throws InterruptedException {
+            waitFor(mConnected, count);
+            return new ArrayList<Peer>(mConnected);
+        }
+
+        synchronized List<Peer> waitDisconnected(int count) throws InterruptedException {
+            waitFor(mDisconnected, count);
+            return new ArrayList<Peer>(mDisconnected);
+        }
+
+        private void waitFor(List<Peer> peers, int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (peers.size() < count && System.currentTimeMillis() < end)
+                wait(Math.max(end - System.currentTimeMillis(), 1));
+        }
+    }
+
+    /**
+     * A tone that is read no faster than real time, like a microphone
+     */
+    private static class RealTimeTone implements IAudioSource {
+        private final ToneSource mTone = new ToneSource(440, 0.3);
+
+        @Override
+        public void start() {
+            mTone.start();
+        }
+
+        @Override
+        public void stop() {
+            mTone.stop();
+        }
+
+        @Override
+        public boolean isStarted() {
+            return mTone.isStarted();
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            try {
+                Thread.sleep(length * 1000L / Common.SAMPLE_RATE);
+            } catch (InterruptedException e) {
+                return -1;
+            }
+            return mTone.read(buffer, offset, length);
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        mMixer = Mixer.createMixer(TestPlayers.NO_SINK, IClock.SYSTEM, new FakeCodecFactory());
+        mClientRecorder = createRecorder();
+        mServerRecorder = createRecorder();
+        ServerSocket socket = new ServerSocket(0);
+        mPort = socket.getLocalPort();
+        socket.close();
+
+        mServer = new ServerThread(mServerRecorder, new TcpTransport(null, mPort),
+                                   null, mNotifications);
+        mServer.start();
+        IConnectable connectable = new IConnectable() {
+            @Override
+            public ILink getLink(Peer peer, Device device) throws IOException {
+                mClientLink = new TcpTransport("127.0.0.1", mPort).connect();
+                return mClientLink;
+            }
+        };
+        mClient = new Peer(mClientRecorder, connectable, mNotifications, null, null, true);
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        mClient.exit();
+        mClient.join(TIMEOUT);
+        mServer.exit();
+        mClientRecorder.exit();
+        mServerRecorder.exit();
+        mMixer.exit();
+        mMixer.join();
+    }
+
+    /**
+     * Both peers play the sound of the other. When the link breaks, the
+     * client connects again, the server accepts it as a new peer and the
+     * sound flows again.
+     */
+    public void testExchangeAndReconnect() throws Exception {
+        mClient.start();
+        List<Peer> connected = mNotifications.waitConnected(2);
+        assertEquals(2, connected.size());
+        Peer serverPeer = connected.get(0) == mClient ? connected.get(1) : connected.get(0);
+        assertTrue(connected.contains(mClient));
+        assertNotSame(mClient, serverPeer);
+        assertExchange(mClient, serverPeer);
+
+        // Break the link under the client
+        mClientLink.close();
+        List<Peer> disconnected = mNotifications.waitDisconnected(2);
+        assertTrue("the client was not disconnected", disconnected.contains(mClient));
+        assertTrue("the server peer was not disconnected", disconnected.contains(serverPeer));
+
+        connected = mNotifications.waitConnected(4);
+        assertEquals("no reconnection", 4, connected.size());
+        Peer newServerPeer = connected.get(2) == mClient ? connected.get(3) : connected.get(2);
+        assertTrue(connected.subList(2, 4).contains(mClient));
+        assertNotSame(serverPeer, newServerPeer);
+        assertExchange(mClient, newServerPeer);
+    }
+
+    private RecordThread createRecorder() {
+        RecordThread recorder = new RecordThread(new RealTimeTone(),
+                new SoundProcessor(Common.AUDIO_BUFFER_LEN, new FakeCodecFactory()));
+        recorder.start();
+        recorder.setRecordState(true);
+        return recorder;
+    }
+
+    /**
+     * Waits until each of the peers received FRAMES frames from the other
+     */
+    private static void assertExchange(Peer first, Peer second) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (getReceivedFrames(first) < FRAMES || getReceivedFrames(second) < FRAMES) {
+            if (System.currentTimeMillis() > end)
+                fail("received " + getReceivedFrames(first) + " and " +
+                     getReceivedFrames(second) + " frames");
+            Thread.sleep(20);
+        }
+    }
+
+    private static int getReceivedFrames(Peer peer) {
+        Player player = peer.getPlayer();
+        return player == null ? 0 : player.getReceivedFrames();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+import junit.framework.TestCase;
+
+import com.motolky.Common;
+import com.motolky.sound.FakeCodecFactory;
+import com.motolky.sound.Frame;
+import com.motolky.sound.IClock;
+import com.motolky.sound.Player;
+import com.motolky.sound.TestPlayers;
+
+/**
+ * Tests UDP links on 127.0.0.1, impaired by a LossyLink the way the
+ * transport does it: the handshake, the datagrams that come late or out of
+ * order, and the failure of a link whose remote device went silent.
+ */
+public class LossyLinkTest extends TestCase {
+    private static final int DELAY = 500;             // miliseconds
+    private static final long FRAME_NANOS = 20000000L;
+
+    private final byte[] mPacket = new byte[Frame.HEADER_LEN + FakeCodecFactory.ENCODED_LEN];
+    private final byte[] mReceived = new byte[Packetizer.MAX_PACKET_LEN];
+    private final short[] mOut = new short[Common.AUDIO_BUFFER_LEN];
+    private volatile long mNanos = 0;
+    private ILink mServer;
+    private ILink mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        int port = getFreePort();
+        final UdpTransport server = new UdpTransport(port, null, 0);
+        server.setImpairment(0, DELAY, 0);
+        UdpTransport client = new UdpTransport(0, "127.0.0.1", port);
+        client.setImpairment(0, DELAY, 0);
+
+        final ILink[] accepted = new ILink[1];
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    accepted[0] = server.accept();
+                } catch (IOException ioe) {
+                    accepted[0] = null;
+                }
+            }
+        };
+        acceptor.start();
+        mClient = client.connect();
+        acceptor.join(5000);
+        mServer = accepted[0];
+        server.close();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (mServer != null)
+            mServer.close();
+        if (mClient != null)
+            mClient.close();
+    }
+
+    /**
+     * The hello of the client is acknowledged and both ends get a link
+     * to the other, impaired on the sending side
+     */
+    public void testHandshake() throws IOException {
+        assertNotNull("the server did not accept", mServer);
+        assertTrue(mServer instanceof LossyLink);
+        assertTrue(mClient instanceof LossyLink);
+        assertTrue(((LossyLink)mServer).getLink() instanceof UdpLink);
+        assertTrue(mServer.getRemoteAddress(), mServer.getRemoteAddress().contains("127.0.0.1"));
+        assertTrue(mClient.getRemoteAddress(), mClient.getRemoteAddress().contains("127.0.0.1"));
+        assertFalse(mClient.isReliable());
+
+        // Both ways, through the delay of the impairment
+        long start = System.currentTimeMillis();
+        writeFrame(7);
+        mClient.send(mPacket, 0, mPacket.length);
+        assertEquals(mPacket.length, mServer.receive(mReceived, 0, mReceived.length));
+        assertEquals(7, Frame.readSequence(mReceived, 0));
+        assertTrue(System.currentTimeMillis() - start >= DELAY - 50);
+
+        writeFrame(8);
+        mServer.send(mPacket, 0, mPacket.length);
+        assertEquals(mPacket.length, mClient.receive(mReceived, 0, mReceived.length));
+        assertEquals(8, Frame.readSequence(mReceived, 0));
+    }
+
+    /**
+     * A datagram that comes after its playout time is dropped by the
+     * player and its frame is counted as lost and concealed. Two datagrams
+     * swapped on the way, but in time, are both played.
+     */
+    public void testLateAndReorderedDatagrams() throws IOException {
+        assertNotNull("the server did not accept", mServer);
+        // The impaired link delays the frame 10. The others go directly.
+        ILink slow = mClient;
+        ILink direct = ((LossyLink)mClient).getLink();
+        UdpLink receiver = (UdpLink)((LossyLink)mServer).getLink();
+        Player player = TestPlayers.create(new IClock() {
+            @Override
+            public long nanoTime() {
+                return mNanos;
+            }
+        });
+
+        for (int seq = 0; seq < 30; seq++) {
+            if (seq == 10) {
+                writeFrame(10);
+                slow.send(mPacket, 0, mPacket.length);
+                continue;
+            }
+            // The frames 20 and 21 are sent in the wrong order
+            int sent = seq == 20 ? 21 : seq == 21 ? 20 : seq;
+            writeFrame(sent);
+            direct.send(mPacket, 0, mPacket.length);
+            receiveAndPlay(receiver, player);
+            // The frame 10 arrives while the frame 20 is sent
+            if (seq == 20)
+                receiveAndPlay(receiver, player);
+        }
+
+        // The link numbers the datagrams when the impairment hands them
+        // over, so only the player sees them out of order
+        assertEquals(30, receiver.getReceivedDatagrams());
+        assertEquals(0, receiver.getLostDatagrams());
+        assertEquals(30, player.getReceivedFrames());
+        assertEquals("the frame 10 was played", 1, player.getLateFrames());
+        assertEquals(1, player.getLostFrames());
+        assertTrue(player.getConcealedFrames() >= 1);
+    }
+
+    /**
+     * The link fails after MAX_MISSED_HEARTBEATS heartbeat intervals
+     * without anything from the remote device
+     */
+    public void testFailsAfterMissedHeartbeats() {
+        assertNotNull("the server did not accept", mServer);
+        // The client never receives, so it does not send heartbeats
+        long start = System.currentTimeMillis();
+        try {
+            mServer.receive(mReceived, 0, mReceived.length);
+            fail("The link did not fail");
+        } catch (IOException ioe) {
+            long elapsed = System.currentTimeMillis() - start;
+            long limit = UdpLink.MAX_MISSED_HEARTBEATS * UdpLink.HEARTBEAT_INTERVAL;
+            assertTrue("failed after " + elapsed + " ms", elapsed >= limit - 100);
+            assertTrue("failed after " + elapsed + " ms", elapsed <= limit + 2 * UdpLink.HEARTBEAT_INTERVAL);
+        }
+    }
+
+    /**
+     * Receives a datagram, gives it to the player and plays a frame
+     */
+    private void receiveAndPlay(UdpLink receiver, Player player) throws IOException {
+        int len = receiver.receive(mReceived, 0, mReceived.length);
+        player.receiveData(mReceived, len);
+        mNanos += FRAME_NANOS;
+        player.readFrame(mOut);
+    }
+
+    private void writeFrame(int sequence) {
+        int offset = Frame.writeHeader(mPacket, 0, FakeCodecFactory.ENCODED_LEN, sequence,
+                                       sequence * FakeCodecFactory.FRAME_SAMPLES, 0);
+        for (int i = offset; i < mPacket.length; i++)
+            mPacket[i] = (byte)sequence;
+    }
+
+    private static int getFreePort() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.motolky.sound.FakeCodecFactory;
+import com.motolky.sound.Frame;
+import com.motolky.sound.IClock;
+import com.motolky.sound.Mixer;
+import com.motolky.sound.Player;
+import com.motolky.sound.TestPlayers;
+
+/**
+ * Runs multicast sessions on the loopback of this host. Besides the
+ * sessions, the test sends datagrams of its own in the format of the
+ * session, as a member whose heartbeats it controls.
+ */
+public class MulticastSessionTest extends TestCase {
+    private static final byte MAGIC = 0x4D;
+    private static final byte TYPE_AUDIO = 1;
+    private static final byte TYPE_HEARTBEAT = 2;
+    private static final int FAKE_SOURCE_ID = 0x12345678;
+    private static final int FRAME_LEN = Frame.HEADER_LEN + FakeCodecFactory.ENCODED_LEN;
+
+    private Mixer mMixer;
+    private int mPort;
+    private MulticastSocket mFakeMember;
+    private final List<MulticastSession> mSessions = new ArrayList<MulticastSession>();
+
+    /**
+     * Remembers the members that joined and left a session
+     */
+    private static class Members implements IMemberNotifiable {
+        private final Map<Integer, Player> mJoined = new HashMap<Integer, Player>();
+        private final Map<Integer, Long> mLeft = new HashMap<Integer, Long>();
+
+        @Override
+        public synchronized void memberJoined(int sourceId, Player player) {
+            mJoined.put(sourceId, player);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void memberLeft(int sourceId) {
+            mLeft.put(sourceId, System.currentTimeMillis());
+            notifyAll();
+        }
+
+        synchronized Player waitJoined(int sourceId, long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (!mJoined.containsKey(sourceId) && System.currentTimeMillis() < end)
+                wait(Math.max(end - System.currentTimeMillis(), 1));
+            return mJoined.get(sourceId);
+        }
+
+        synchronized Long waitLeft(int sourceId, long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (!mLeft.containsKey(sourceId) && System.currentTimeMillis() < end)
+                wait(Math.max(end - System.currentTimeMillis(), 1));
+            return mLeft.get(sourceId);
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        // The players of the sessions decode with the fake decoder
+        mMixer = Mixer.createMixer(TestPlayers.NO_SINK, IClock.SYSTEM, new FakeCodecFactory());
+        DatagramSocket socket = new DatagramSocket(0);
+        mPort = socket.getLocalPort();
+        socket.close();
+        mFakeMember = new MulticastSocket();
+        mFakeMember.setTimeToLive(1);
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        for (MulticastSession session : mSessions)
+            session.exit();
+        mFakeMember.close();
+        mMixer.exit();
+        mMixer.join();
+    }
+
+    /**
+     * Every member gets its own player, which receives only its frames
+     */
+    public void testDemuxBySourceId() throws Exception {
+        Members members = new Members();
+        MulticastSession listener = startSession(members);
+        MulticastSession talker = startSession(null);
+
+        byte[] frames = new byte[4 * FRAME_LEN];
+        for (int i = 0; i < 4; i++)
+            writeFrame(frames, i * FRAME_LEN, i);
+        talker.sendData(frames, frames.length);
+        talker.flush();
+        for (int i = 0; i < 6; i++) {
+            byte[] frame = new byte[FRAME_LEN];
+            writeFrame(frame, 0, i);
+            sendFake(TYPE_AUDIO, frame);
+        }
+
+        Player talkerPlayer = members.waitJoined(talker.getSourceId(), 2000);
+        Player fakePlayer = members.waitJoined(FAKE_SOURCE_ID, 2000);
+        assertNotNull(talkerPlayer);
+        assertNotNull(fakePlayer);
+        assertNotSame(talkerPlayer, fakePlayer);
+        assertNull("a session heard itself", members.waitJoined(listener.getSourceId(), 0));
+        assertEquals(2, listener.getMemberCount());
+
+        assertTrue(waitFrames(talkerPlayer, 4, 2000));
+        assertTrue(waitFrames(fakePlayer, 6, 2000));
+        Thread.sleep(200);
+        assertEquals(4, talkerPlayer.getReceivedFrames());
+        assertEquals(6, fakePlayer.getReceivedFrames());
+    }
+
+    /**
+     * A member that only sends heartbeats stays in the session for longer
+     * than MEMBER_TIMEOUT. Once they stop, it is removed after MEMBER_TIMEOUT.
+     */
+    public void testHeartbeatRefreshAndExpiry() throws Exception {
+        Members members = new Members();
+        MulticastSession listener = startSession(members);
+
+        long start = System.currentTimeMillis();
+        long lastHeartbeat = 0;
+        while (System.currentTimeMillis() - start < MulticastSession.MEMBER_TIMEOUT + 2000) {
+            sendFake(TYPE_HEARTBEAT, null);
+            lastHeartbeat = System.currentTimeMillis();
+            Thread.sleep(MulticastSession.HEARTBEAT_INTERVAL / 2);
+        }
+        assertNotNull(members.waitJoined(FAKE_SOURCE_ID, 0));
+        assertNull("expired while sending heartbeats", members.waitLeft(FAKE_SOURCE_ID, 0));
+        assertEquals(1, listener.getMemberCount());
+
+        Long left = members.waitLeft(FAKE_SOURCE_ID,
+                MulticastSession.MEMBER_TIMEOUT + 3 * MulticastSession.HEARTBEAT_INTERVAL);
+        assertNotNull("the member did not expire", left);
+        assertTrue("expired after " + (left - lastHeartbeat) + " ms",
+                left - lastHeartbeat >= MulticastSession.MEMBER_TIMEOUT);
+        assertEquals(0, listener.getMemberCount());
+    }
+
+    /**
+     * A session that exits says bye, so the others remove it right away
+     */
+    public void testByeRemovesMember() throws Exception {
+        Members members = new Members();
+        MulticastSession listener = startSession(members);
+        MulticastSession leaving = startSession(null);
+        int leavingId = leaving.getSourceId();
+        // Its first heartbeat makes it a member
+        assertNotNull(members.waitJoined(leavingId, 2000));
+
+        long exited = System.currentTimeMillis();
+        mSessions.remove(leaving);
+        leaving.exit();
+        Long left = members.waitLeft(leavingId, MulticastSession.MEMBER_TIMEOUT);
+        assertNotNull("the member was not removed", left);
+        assertTrue("removed after " + (left - exited) + " ms",
+                left - exited < MulticastSession.HEARTBEAT_INTERVAL);
+        assertEquals(0, listener.getMemberCount());
+    }
+
+    private MulticastSession startSession(IMemberNotifiable members) throws IOException {
+        MulticastSession session = new MulticastSession(MulticastSession.DEFAULT_GROUP, mPort,
+                                                        members);
+        mSessions.add(session);
+        session.start();
+        return session;
+    }
+
+    /**
+     * Sends a datagram as the member with the id FAKE_SOURCE_ID
+     */
+    private void sendFake(byte type, byte[] data) throws IOException {
+        int len = data != null ? data.length : 0;
+        byte[] datagram = new byte[6 + len];
+        datagram[0] = MAGIC;
+        datagram[1] = type;
+        datagram[2] = (byte)(FAKE_SOURCE_ID >> 24);
+        datagram[3] = (byte)(FAKE_SOURCE_ID >> 16);
+        datagram[4] = (byte)(FAKE_SOURCE_ID >> 8);
+        datagram[5] = (byte)FAKE_SOURCE_ID;
+        if (data != null)
+            System.arraycopy(data, 0, datagram, 6, len);
+        mFakeMember.send(new DatagramPacket(datagram, datagram.length,
+                InetAddress.getByName(MulticastSession.DEFAULT_GROUP), mPort));
+    }
+
+    private static void writeFrame(byte[] buffer, int offset, int sequence) {
+        Frame.writeHeader(buffer, offset, FakeCodecFactory.ENCODED_LEN, sequence,
+                          sequence * FakeCodecFactory.FRAME_SAMPLES, 0);
+    }
+
+    /**
+     * Waits until the mixer moved the frames of a player to its jitter buffer
+     */
+    private static boolean waitFrames(Player player, int frames, long timeout)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (player.getReceivedFrames() < frames) {
+            if (System.currentTimeMillis() > end)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
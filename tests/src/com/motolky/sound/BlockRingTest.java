@@ -0,0 +1,88 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the waiting and the waking up of the consumer of a block ring
+ */
+public class BlockRingTest extends TestCase {
+    private final BlockRing<short[]> mRing = new BlockRing<short[]>(new short[4][8]);
+    private volatile boolean mRunning = false;
+    private volatile boolean mGo = false;
+
+    /**
+     * The consumer is woken up before it waits for the first time, like
+     * when a stage is told to exit right after it started
+     */
+    public void testWakeUpBeforeFirstWait() throws InterruptedException {
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                mRunning = true;
+                while (!mGo)
+                    Thread.yield();
+                mRing.await();
+            }
+        };
+        mRing.setConsumer(consumer);
+        consumer.start();
+        while (!mRunning)
+            Thread.yield();
+
+        mRing.wakeUp();
+        mGo = true;
+        consumer.join(2000);
+        assertFalse("the consumer missed the wake up", consumer.isAlive());
+    }
+
+    /**
+     * A block published while the consumer waits wakes it up
+     */
+    public void testPublishWakesUp() throws InterruptedException {
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                while (mRing.peek() == null)
+                    mRing.await();
+            }
+        };
+        mRing.setConsumer(consumer);
+        consumer.start();
+        Thread.sleep(50);
+
+        short[] block = mRing.getFreeSlot();
+        assertNotNull(block);
+        mRing.publish(block.length, 0);
+        consumer.join(2000);
+        assertFalse("the consumer missed the block", consumer.isAlive());
+        assertEquals(1, mRing.size());
+        assertEquals(8, mRing.peekLength());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Codecs written in Java, for the tests that run without the speex library.
+ * The encoder keeps the high byte of every eighth sample and the decoder
+ * repeats it, so the sound that goes through them is recognizable.
+ */
+public class FakeCodecFactory implements ICodecFactory {
+    public static final int FRAME_SAMPLES = 160;
+    public static final int ENCODED_LEN = FRAME_SAMPLES / 8;
+
+    @Override
+    public SoundEncoder createEncoder() {
+        return new Encoder();
+    }
+
+    @Override
+    public SoundDecoder createDecoder() {
+        return new Decoder();
+    }
+
+    private static class Encoder extends SoundEncoder {
+        Encoder() {
+            super(FRAME_SAMPLES);
+        }
+
+        @Override
+        public int encode(short[] data, int start, int length, byte[] out, int outOffset)
+                throws InvalidParameterException {
+            if (length != FRAME_SAMPLES || outOffset + ENCODED_LEN > out.length)
+                throw new InvalidParameterException("Bad frame");
+            for (int i = 0; i < ENCODED_LEN; i++)
+                out[outOffset + i] = (byte)(data[start + 8 * i] >> 8);
+            return ENCODED_LEN;
+        }
+    }
+
+    private static class Decoder extends SoundDecoder {
+        Decoder() {
+            super(FRAME_SAMPLES);
+        }
+
+        @Override
+        public int decode(byte[] data, int offset, int no, short[] out, int outOffset)
+                throws InvalidParameterException {
+            if (no <= 0 || outOffset + FRAME_SAMPLES > out.length)
+                throw new InvalidParameterException("Bad frame");
+            for (int i = 0; i < FRAME_SAMPLES; i++)
+                out[outOffset + i] = (short)(data[offset + (i / 8) % no] << 8);
+            return FRAME_SAMPLES;
+        }
+
+        @Override
+        public int decodeLost(short[] out, int outOffset) throws InvalidParameterException {
+            for (int i = 0; i < FRAME_SAMPLES; i++)
+                out[outOffset + i] = 0;
+            return FRAME_SAMPLES;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the jitter measurement and the target depth of the jitter buffer
+ */
+public class JitterBufferTest extends TestCase {
+    private static final int FRAME_SAMPLES = 160;
+    private static final int FRAME_MS = 20;
+    private static final int SAMPLES_PER_MS = 8;
+
+    private final Frame mFrame = new Frame(new byte[10], 10, 0, 0, 0);
+    private JitterBuffer mBuffer;
+
+    @Override
+    protected void setUp() {
+        mBuffer = new JitterBuffer(FRAME_SAMPLES, 64);
+    }
+
+    /**
+     * A sender that stops for 5 seconds between two talk spurts, with the
+     * timestamp following the pause
+     */
+    public void testTalkSpurtGap() {
+        receiveSpurt(0, 0, 0, 100);
+        assertEquals(2, mBuffer.getTargetDepth());
+
+        playSilence(5000);
+        long resumeMs = 100 * FRAME_MS + 5000;
+        receiveSpurt(100, 100 * FRAME_SAMPLES + 5000 * SAMPLES_PER_MS, resumeMs, 10);
+        assertEquals(2, mBuffer.getTargetDepth());
+        assertTrue("jitter " + mBuffer.getJitter(), mBuffer.getJitter() <= 1);
+    }
+
+    /**
+     * A sender that stops for 5 seconds without the timestamp showing it.
+     * The buffer runs dry, so the pause is not taken for jitter.
+     */
+    public void testPauseAfterUnderrun() {
+        receiveSpurt(0, 0, 0, 100);
+
+        playSilence(5000);
+        long resumeMs = 100 * FRAME_MS + 5000;
+        receiveSpurt(100, 100 * FRAME_SAMPLES, resumeMs, 10);
+        assertEquals(2, mBuffer.getTargetDepth());
+        assertTrue("jitter " + mBuffer.getJitter(), mBuffer.getJitter() <= 1);
+    }
+
+    /**
+     * Frames arriving in bursts still raise the target depth
+     */
+    public void testJitterRaisesTarget() {
+        for (int i = 0; i < 100; i++) {
+            // Every 4 frames arrive together
+            long arrivalMs = (i / 4 + 1) * 4 * FRAME_MS;
+            put(i, i * FRAME_SAMPLES, arrivalMs);
+            while (mBuffer.getDepth() > mBuffer.getTargetDepth() && mBuffer.getFrame() != null)
+                ;
+        }
+        assertTrue("target " + mBuffer.getTargetDepth(), mBuffer.getTargetDepth() > 2);
+    }
+
+    /**
+     * A sender restarts with new sequence numbers and timestamps
+     */
+    public void testSenderRestart() {
+        receiveSpurt(0, 0, 0, 100);
+        receiveSpurt(30000, 123456789, 100 * FRAME_MS, 10);
+        assertEquals(2, mBuffer.getTargetDepth());
+        assertTrue("jitter " + mBuffer.getJitter(), mBuffer.getJitter() <= 1);
+    }
+
+    /**
+     * A silence descriptor is played as soon as it arrives, without waiting
+     * for the next one to fill the buffer to its target
+     */
+    public void testSidNotHeldBack() {
+        receiveSpurt(0, 0, 0, 10);
+        playSilence(100);
+
+        putSid(10, 10 * FRAME_SAMPLES, 10 * FRAME_MS);
+        Frame frame = mBuffer.getFrame();
+        assertNotNull(frame);
+        assertEquals(10, frame.getSequence());
+        assertTrue((frame.getFlags() & Frame.FLAG_SID) != 0);
+
+        // The voice after it still waits for the target depth
+        put(11, 11 * FRAME_SAMPLES, 11 * FRAME_MS);
+        assertNull(mBuffer.getFrame());
+        put(12, 12 * FRAME_SAMPLES, 12 * FRAME_MS);
+        assertEquals(11, mBuffer.getFrame().getSequence());
+    }
+
+    /**
+     * Receives frames at a steady pace. A frame is played every time one
+     * arrives, like the mixer does.
+     */
+    private void receiveSpurt(int firstSeq, int firstTimestamp, long firstMs, int frames) {
+        for (int i = 0; i < frames; i++) {
+            put(firstSeq + i, firstTimestamp + i * FRAME_SAMPLES, firstMs + i * FRAME_MS);
+            mBuffer.getFrame();
+        }
+    }
+
+    /**
+     * Plays while nothing arrives, until the buffer runs dry
+     */
+    private void playSilence(int ms) {
+        for (int i = 0; i < ms / FRAME_MS; i++)
+            mBuffer.getFrame();
+    }
+
+    private void put(int seq, int timestamp, long arrivalMs) {
+        mFrame.set(10, seq, timestamp, 0);
+        mBuffer.putFrame(mFrame, arrivalMs * 1000000);
+    }
+
+    private void putSid(int seq, int timestamp, long arrivalMs) {
+        mFrame.set(Frame.SID_PAYLOAD_LEN, seq, timestamp, Frame.FLAG_SID);
+        mBuffer.putFrame(mFrame, arrivalMs * 1000000);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.motolky.Common;
+import com.motolky.communication.ISendHandler;
+
+/**
+ * Plays a PCM file through the whole pipeline, from the record thread to
+ * the mixer, on a plain JVM and into a WAV file. The time of the pipeline
+ * is taken from a clock advanced by the samples read, so the test does not
+ * run in real time.
+ * The test runs with the fake codecs, unless it is run with
+ * -Dmotolky.speex=true. Then it uses the speex library, built for the host
+ * and passed with -Djava.library.path, and fails if it cannot be loaded.
+ */
+public class LoopbackTest extends TestCase {
+    private static final int SECONDS = 10;
+    private static final int SAMPLES = SECONDS * Common.SAMPLE_RATE;
+    private static final int AMPLITUDE = 8000;
+    private static final int WAV_HEADER_LEN = 44;
+    private static final String SPEEX_PROPERTY = "motolky.speex";
+
+    private boolean mDtx;
+    private File mIn;
+    private File mOut;
+    private volatile IOException mSendError = null;
+
+    @Override
+    protected void setUp() throws IOException {
+        // A tone is never silence, but the comparison of the lengths below
+        // needs every frame to be sent
+        mDtx = Common.ENABLE_DTX;
+        Common.ENABLE_DTX = false;
+        mIn = File.createTempFile("loopback", ".pcm");
+        mOut = File.createTempFile("loopback", ".wav");
+    }
+
+    @Override
+    protected void tearDown() {
+        Common.ENABLE_DTX = mDtx;
+        mIn.delete();
+        mOut.delete();
+    }
+
+    public void testFileLoopback() throws Exception {
+        ICodecFactory codecs = new FakeCodecFactory();
+        if (Boolean.getBoolean(SPEEX_PROPERTY)) {
+            // Fails here if the library cannot be loaded
+            new SoundDecoder().exit();
+            codecs = ICodecFactory.SPEEX;
+        }
+        writeTone(mIn);
+
+        ManualClock clock = new ManualClock();
+        CountingSink sink = new CountingSink(new WavFileSink(mOut));
+        Mixer mixer = Mixer.createMixer(sink, clock);
+        final Player player = new Player(mixer, codecs);
+        mixer.addPlayer(player);
+        PacedSource source = new PacedSource(new PcmFileSource(mIn, false), clock, sink);
+        RecordThread recorder = new RecordThread(source,
+                new SoundChain(new SoundProcessor(Common.AUDIO_BUFFER_LEN, codecs),
+                               Common.AUDIO_BUFFER_LEN),
+                clock);
+        recorder.addSendHandler(new ISendHandler() {
+            @Override
+            public void sendData(byte[] data, int bytes) {
+                // This runs on the send thread. The failure is checked
+                // by the test thread, once the record thread is done.
+                try {
+                    player.receiveData(data, bytes);
+                } catch (IOException e) {
+                    if (mSendError == null)
+                        mSendError = e;
+                }
+            }
+
+            @Override
+            public void flush() {}
+        });
+
+        long start = System.currentTimeMillis();
+        // The record thread stops by itself at the end of the file
+        recorder.start();
+        recorder.join(SECONDS * 1000);
+        waitForSink(sink);
+        long elapsed = System.currentTimeMillis() - start;
+
+        Player.deletePlayer(player);
+        mixer.exit();
+        mixer.join();
+
+        if (mSendError != null)
+            fail("The player refused the data: " + mSendError.getMessage());
+        assertTrue("took " + elapsed + " ms", elapsed < SECONDS * 1000 / 2);
+        long played = sink.getSamples();
+        assertTrue("played " + played + " of " + SAMPLES, played >= SAMPLES * 9 / 10);
+        double rms = readRms(mOut);
+        assertTrue("rms " + rms, rms > AMPLITUDE / Math.sqrt(2) / 4);
+    }
+
+    private static void writeTone(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < SAMPLES; i++) {
+                short sample = (short)(AMPLITUDE * Math.sin(2 * Math.PI * 440 * i / Common.SAMPLE_RATE));
+                out.write(sample & 0xFF);
+                out.write((sample >> 8) & 0xFF);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the root mean square of the samples of a WAV file, leaving
+     *         out the first and the last second
+     */
+    private static double readRms(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int)file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int no = in.read(bytes, read, bytes.length - read);
+                if (no < 0)
+                    break;
+                read += no;
+            }
+            int first = WAV_HEADER_LEN + 2 * Common.SAMPLE_RATE;
+            int last = read - 2 * Common.SAMPLE_RATE;
+            double sum = 0;
+            int count = 0;
+            for (int i = first; i + 1 < last; i += 2) {
+                int sample = (short)((bytes[i] & 0xFF) | (bytes[i + 1] << 8));
+                sum += (double)sample * sample;
+                count++;
+            }
+            return count > 0 ? Math.sqrt(sum / count) : 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Waits until nothing has been played for a while
+     */
+    private static void waitForSink(CountingSink sink) throws InterruptedException {
+        long last = -1;
+        while (sink.getSamples() != last) {
+            last = sink.getSamples();
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * A clock that only moves when it is told to
+     */
+    static class ManualClock implements IClock {
+        private final AtomicLong mTime = new AtomicLong();
+
+        @Override
+        public long nanoTime() {
+            return mTime.get();
+        }
+
+        public void advance(long nanos) {
+            mTime.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * Counts the samples written to a sink
+     */
+    static class CountingSink implements IAudioSink {
+        private final IAudioSink mSink;
+        private final AtomicLong mSamples = new AtomicLong();
+
+        public CountingSink(IAudioSink sink) {
+            mSink = sink;
+        }
+
+        public long getSamples() {
+            return mSamples.get();
+        }
+
+        @Override
+        public void play() {
+            mSink.play();
+        }
+
+        @Override
+        public void pause() {
+            mSink.pause();
+        }
+
+        @Override
+        public int write(short[] buffer, int offset, int length) {
+            int no = mSink.write(buffer, offset, length);
+            if (no > 0)
+                mSamples.addAndGet(no);
+            return no;
+        }
+
+        @Override
+        public void setVolume(float volume) {
+            mSink.setVolume(volume);
+        }
+
+        @Override
+        public void release() {
+            mSink.release();
+        }
+    }
+
+    /**
+     * Reads a source no faster than the sink plays it, advancing the clock
+     * by the duration of every block read. This keeps the depth of the
+     * jitter buffer what it would be in real time.
+     */
+    static class PacedSource implements IAudioSource {
+        private static final int LEAD = 4 * Common.AUDIO_BUFFER_LEN;
+        private static final long TIMEOUT_MS = 1000;
+
+        private final IAudioSource mSource;
+        private final ManualClock mClock;
+        private final CountingSink mSink;
+        private long mRead = 0;
+
+        public PacedSource(IAudioSource source, ManualClock clock, CountingSink sink) {
+            mSource = source;
+            mClock = clock;
+            mSink = sink;
+        }
+
+        @Override
+        public void start() {
+            mSource.start();
+        }
+
+        @Override
+        public void stop() {
+            mSource.stop();
+        }
+
+        @Override
+        public boolean isStarted() {
+            return mSource.isStarted();
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (mSink.getSamples() < mRead - LEAD && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+            int no = mSource.read(buffer, offset, length);
+            if (no > 0) {
+                mRead += no;
+                mClock.advance(no * 1000000000L / Common.SAMPLE_RATE);
+            }
+            return no;
+        }
+
+        @Override
+        public void release() {
+            mSource.release();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.motolky.Common;
+
+/**
+ * Checks that the receive path does not allocate memory: the frames go
+ * through Player.receiveData(), the player buffer, the frame ring and the
+ * jitter buffer, and are decoded by readFrame() the way the mixer does it.
+ * The peer talks and then stays silent, sending only silence descriptors.
+ * Some voice frames are lost and some packets are late, so the frames are
+ * concealed and comfort noise is played. The decoder is the fake one, so
+ * the test runs without speex.
+ */
+public class PlayerAllocationTest extends TestCase {
+    private static final long FRAME_NANOS = 20000000L;
+    private static final int FRAME_SAMPLES = FakeCodecFactory.FRAME_SAMPLES;
+    private static final int TALK_FRAMES = 100;
+    private static final int CYCLE_FRAMES = 200;
+    private static final int WARM_UP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 2000;
+    private static final int MEASURED_WINDOWS = 5;
+
+    private final byte[] mPacket = new byte[4 * (Frame.HEADER_LEN + FakeCodecFactory.ENCODED_LEN)];
+    private final short[] mOut = new short[Common.AUDIO_BUFFER_LEN];
+    private int mPacketLen = 0;
+    private int mFrameIndex = 0;
+    private int mSequence = 0;
+    private long mNanos = 0;
+    private int mVoiceFrames = 0;
+    private int mNoiseFrames = 0;
+    private Player mPlayer;
+
+    @Override
+    protected void setUp() {
+        IClock clock = new IClock() {
+            @Override
+            public long nanoTime() {
+                return mNanos;
+            }
+        };
+        IAudioSink sink = new IAudioSink() {
+            @Override
+            public void play() {
+            }
+
+            @Override
+            public void pause() {
+            }
+
+            @Override
+            public int write(short[] buffer, int offset, int length) {
+                return length;
+            }
+
+            @Override
+            public void setVolume(float volume) {
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        // The mixer thread is not started. The test reads the frames itself.
+        mPlayer = new Player(new Mixer(sink, clock), new FakeCodecFactory());
+    }
+
+    public void testReceiveDoesNotAllocate() throws IOException {
+        for (int i = 0; i < WARM_UP_FRAMES; i++)
+            tick();
+        int concealed = mPlayer.getConcealedFrames();
+        mVoiceFrames = 0;
+        mNoiseFrames = 0;
+
+        // The JIT may still resolve a class or recompile a method, which
+        // allocates once. A path that allocates does it in every window.
+        long allocated = Long.MAX_VALUE;
+        for (int w = 0; w < MEASURED_WINDOWS; w++) {
+            long start = ThreadAllocations.get();
+            for (int i = 0; i < MEASURED_FRAMES; i++)
+                tick();
+            allocated = Math.min(allocated, ThreadAllocations.since(start));
+        }
+
+        assertTrue("no voice was played", mVoiceFrames > 0);
+        assertTrue("no comfort noise was played", mNoiseFrames > 0);
+        assertTrue("no frame was concealed", mPlayer.getConcealedFrames() > concealed);
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * Sends what the peer captured in the last frame time, in a packet of
+     * two frames every other frame, and plays a frame
+     */
+    private void tick() throws IOException {
+        int n = this.mFrameIndex++;
+        int f = n % CYCLE_FRAMES;
+        if (f < TALK_FRAMES) {
+            // One voice frame in 13 is lost
+            if (f % 13 != 5)
+                writeFrame(FakeCodecFactory.ENCODED_LEN, n, 0);
+            else
+                this.mSequence = (this.mSequence + 1) % Frame.SEQUENCE_MOD;
+        } else if ((f - TALK_FRAMES) % SoundProcessor.SID_INTERVAL == 0) {
+            writeFrame(Frame.SID_PAYLOAD_LEN, n, Frame.FLAG_SID);
+        }
+
+        // One packet in 25 waits for the next one
+        if (n % 2 == 1 && n % 50 != 1 && this.mPacketLen > 0) {
+            mPlayer.receiveData(this.mPacket, this.mPacketLen);
+            this.mPacketLen = 0;
+        }
+
+        this.mNanos += FRAME_NANOS;
+        int no = mPlayer.readFrame(this.mOut);
+        if (no > 0 && f < TALK_FRAMES)
+            this.mVoiceFrames++;
+        else if (no > 0)
+            this.mNoiseFrames++;
+    }
+
+    /**
+     * Adds a frame to the packet being built
+     * @param length - the length of the payload
+     * @param n - the index of the frame since the start of the test
+     * @param flags - the flags of the frame
+     */
+    private void writeFrame(int length, int n, int flags) {
+        int offset = this.mPacketLen + Frame.writeHeader(this.mPacket, this.mPacketLen, length,
+                this.mSequence, n * FRAME_SAMPLES, flags);
+        if ((flags & Frame.FLAG_SID) != 0) {
+            // A noise level of 300
+            this.mPacket[offset] = (byte)(300 >> 8);
+            this.mPacket[offset + 1] = (byte)300;
+        } else {
+            for (int i = 0; i < length; i++)
+                this.mPacket[offset + i] = (byte)(n + i);
+        }
+        this.mPacketLen = offset + length;
+        this.mSequence = (this.mSequence + 1) % Frame.SEQUENCE_MOD;
+    }
+}
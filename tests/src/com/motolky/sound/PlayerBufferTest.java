@@ -0,0 +1,196 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the frames come out of the player buffer as they were sent,
+ * whatever bytes their payload holds and however the stream is cut
+ */
+public class PlayerBufferTest extends TestCase {
+    private static final int BUFFER_LEN = 4 * Frame.MAX_PAYLOAD_LEN;
+
+    private final Frame mFrame = new Frame(new byte[Frame.MAX_PAYLOAD_LEN], 0, 0, 0, 0);
+
+    public void testPayloadOf127() {
+        checkRoundTrip(filled(100, (byte)127));
+    }
+
+    public void testPayloadOfMagic() {
+        checkRoundTrip(filled(100, Frame.MAGIC));
+    }
+
+    /**
+     * A payload made of whole frame headers, which a parser that looked
+     * inside the payload would take for frames
+     */
+    public void testPayloadOfHeaders() {
+        byte[] payload = new byte[10 * Frame.HEADER_LEN];
+        for (int i = 0; i < 10; i++)
+            Frame.writeHeader(payload, i * Frame.HEADER_LEN, 0, i, i, 0);
+        checkRoundTrip(payload);
+
+        // A header that announces a payload longer than the frame
+        byte[] longer = new byte[Frame.HEADER_LEN + 4];
+        Frame.writeHeader(longer, 2, 500, 1, 1, 0);
+        checkRoundTrip(longer);
+    }
+
+    public void testEmptyPayload() {
+        checkRoundTrip(new byte[0]);
+    }
+
+    public void testLargestPayload() {
+        checkRoundTrip(filled(Frame.MAX_PAYLOAD_LEN, Frame.MAGIC));
+    }
+
+    /**
+     * A frame cut in two at every byte, with the frames around it whole
+     */
+    public void testSplitAtEveryOffset() {
+        byte[] payload = pattern(50);
+        byte[] frame = frame(payload, 7, 1234, Frame.FLAG_SID);
+        for (int cut = 0; cut <= frame.length; cut++) {
+            PlayerBuffer buffer = new PlayerBuffer(BUFFER_LEN);
+            insert(buffer, frame(filled(3, Frame.MAGIC), 6, 0, 0));
+            insert(buffer, Arrays.copyOfRange(frame, 0, cut));
+            assertNextFrame(buffer, 6, filled(3, Frame.MAGIC));
+            if (cut < frame.length)
+                assertFalse("cut at " + cut, buffer.getFrame(mFrame));
+            insert(buffer, Arrays.copyOfRange(frame, cut, frame.length));
+            assertNextFrame(buffer, 7, payload);
+            assertEquals(Frame.FLAG_SID, mFrame.getFlags());
+            assertEquals(1234, mFrame.getTimestamp());
+            assertFalse(buffer.getFrame(mFrame));
+            assertEquals(0, buffer.getSkippedBytes());
+        }
+    }
+
+    /**
+     * Frames of different lengths through a small buffer, so they wrap
+     * around its end at every position
+     */
+    public void testWrapAround() {
+        PlayerBuffer buffer = new PlayerBuffer(3 * (Frame.HEADER_LEN + 40) + 1);
+        for (int seq = 0; seq < 500; seq++) {
+            byte[] payload = pattern(seq % 41);
+            assertTrue(buffer.insertData(frame(payload, seq, 0, 0), Frame.HEADER_LEN + payload.length));
+            assertNextFrame(buffer, seq, payload);
+        }
+        assertEquals(0, buffer.getOverflows());
+        assertEquals(0, buffer.getSkippedBytes());
+    }
+
+    /**
+     * Bytes that are not a frame before a header are skipped and counted
+     */
+    public void testResyncAfterGarbage() {
+        byte[] garbage = { 0, 1, 127, Frame.MAGIC, 0, 5, -1, Frame.MAGIC, Frame.MAGIC, 2 };
+        PlayerBuffer buffer = new PlayerBuffer(BUFFER_LEN);
+        insert(buffer, garbage);
+        insert(buffer, frame(pattern(20), 3, 0, 0));
+        assertNextFrame(buffer, 3, pattern(20));
+        assertEquals(garbage.length, buffer.getSkippedBytes());
+
+        // Garbage between two frames
+        insert(buffer, garbage);
+        insert(buffer, frame(filled(5, (byte)127), 4, 0, 0));
+        assertNextFrame(buffer, 4, filled(5, (byte)127));
+        assertEquals(2 * garbage.length, buffer.getSkippedBytes());
+    }
+
+    /**
+     * A header with a length above MAX_PAYLOAD_LEN is not a header
+     */
+    public void testTooLongIsNotHeader() {
+        byte[] header = new byte[Frame.HEADER_LEN];
+        Frame.writeHeader(header, 0, Frame.MAX_PAYLOAD_LEN, 0, 0, 0);
+        assertTrue(Frame.isValidHeader(header, 0));
+        Frame.writeHeader(header, 0, Frame.MAX_PAYLOAD_LEN + 1, 0, 0, 0);
+        assertFalse(Frame.isValidHeader(header, 0));
+    }
+
+    /**
+     * Sends a frame alone, then after another frame, cut at every byte
+     */
+    private void checkRoundTrip(byte[] payload) {
+        PlayerBuffer buffer = new PlayerBuffer(BUFFER_LEN);
+        insert(buffer, frame(payload, 1, 160, 0));
+        assertNextFrame(buffer, 1, payload);
+        assertEquals(160, mFrame.getTimestamp());
+        assertFalse(buffer.getFrame(mFrame));
+
+        byte[] stream = concat(frame(pattern(10), 2, 0, 0), frame(payload, 3, 0, 0));
+        for (int i = 0; i < stream.length; i++)
+            insert(buffer, new byte[] { stream[i] });
+        assertNextFrame(buffer, 2, pattern(10));
+        assertNextFrame(buffer, 3, payload);
+        assertFalse(buffer.getFrame(mFrame));
+        assertEquals(0, buffer.getSkippedBytes());
+    }
+
+    private void assertNextFrame(PlayerBuffer buffer, int sequence, byte[] payload) {
+        assertTrue("no frame " + sequence, buffer.getFrame(mFrame));
+        assertEquals(sequence, mFrame.getSequence());
+        assertEquals(payload.length, mFrame.getLength());
+        assertTrue(Arrays.equals(payload, Arrays.copyOf(mFrame.getData(), mFrame.getLength())));
+    }
+
+    private static void insert(PlayerBuffer buffer, byte[] data) {
+        assertTrue(buffer.insertData(data, data.length));
+    }
+
+    private static byte[] frame(byte[] payload, int sequence, int timestamp, int flags) {
+        byte[] frame = new byte[Frame.HEADER_LEN + payload.length];
+        Frame.writeHeader(frame, 0, payload.length, sequence, timestamp, flags);
+        System.arraycopy(payload, 0, frame, Frame.HEADER_LEN, payload.length);
+        return frame;
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        return data;
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte)(i * 37 + 11);
+        return data;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] data = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, data, a.length, b.length);
+        return data;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the counting of the links that use each level of a quality ladder
+ */
+public class QualityLadderTest extends TestCase {
+    private static final int TOP = 1 << QualityLadder.TOP_LEVEL;
+
+    public void testTopLevelWhenUnused() {
+        QualityLadder ladder = new QualityLadder();
+        assertEquals(TOP, ladder.getLevelsInUse());
+        ladder.acquireLevel(0);
+        assertEquals(1, ladder.getLevelsInUse());
+        ladder.releaseLevel(0);
+        assertEquals(TOP, ladder.getLevelsInUse());
+    }
+
+    /**
+     * A level stays in use until the last of its links releases it
+     */
+    public void testLevelUsedByTwoLinks() {
+        QualityLadder ladder = new QualityLadder();
+        ladder.acquireLevel(1);
+        ladder.acquireLevel(1);
+        ladder.acquireLevel(2);
+        ladder.releaseLevel(1);
+        assertEquals((1 << 1) | (1 << 2), ladder.getLevelsInUse());
+        ladder.releaseLevel(1);
+        assertEquals(1 << 2, ladder.getLevelsInUse());
+        // Releasing more than was acquired changes nothing
+        ladder.releaseLevel(1);
+        ladder.acquireLevel(1);
+        assertEquals((1 << 1) | (1 << 2), ladder.getLevelsInUse());
+    }
+
+    /**
+     * The levels of a processor do not leak into another one
+     */
+    public void testProcessorsHaveTheirOwnLadder() {
+        SoundProcessor first = new SoundProcessor(320, new FakeCodecFactory());
+        SoundProcessor second = new SoundProcessor(320, new FakeCodecFactory());
+        first.getQualityLadder().acquireLevel(0);
+        assertEquals(1, first.getQualityLadder().getLevelsInUse());
+        assertEquals(TOP, second.getQualityLadder().getLevelsInUse());
+        SoundChain chain = new SoundChain(second, 320);
+        assertSame(second.getQualityLadder(), chain.getQualityLadder());
+    }
+
+    /**
+     * Links that come and go on many threads leave no level behind
+     */
+    public void testConcurrentLinks() throws InterruptedException {
+        final QualityLadder ladder = new QualityLadder();
+        Thread[] links = new Thread[8];
+        for (int t = 0; t < links.length; t++) {
+            final int level = t % QualityLadder.LEVELS;
+            links[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        ladder.acquireLevel(level);
+                        ladder.releaseLevel(level);
+                    }
+                }
+            };
+            links[t].start();
+        }
+        for (int t = 0; t < links.length; t++)
+            links[t].join();
+        assertEquals(TOP, ladder.getLevelsInUse());
+    }
+}
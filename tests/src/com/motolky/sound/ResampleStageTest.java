@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the resampler joins the blocks without losing its position
+ */
+public class ResampleStageTest extends TestCase {
+    private static final int SAMPLES = 8000;
+    private static final int[] BLOCK_LENGTHS = { 160, 1, 320, 33, 7, 200 };
+
+    public void testUpsampleInBlocks() {
+        checkBlocks(8000, 22050);
+    }
+
+    public void testMaxExpansionInBlocks() {
+        checkBlocks(8000, SoundChain.MAX_EXPANSION * 8000);
+    }
+
+    public void testDownsampleInBlocks() {
+        checkBlocks(44100, 8000);
+    }
+
+    /**
+     * An output buffer that is too short loses the rest of the block, but
+     * the next blocks are still resampled
+     */
+    public void testShortOutput() {
+        ResampleStage stage = new ResampleStage(8000, 16000);
+        short[] in = tone(320);
+        short[] out = new short[100];
+        assertEquals(out.length, stage.process(in, in.length, out));
+
+        out = new short[stage.getMaxOutputLength(in.length)];
+        for (int i = 0; i < 10; i++) {
+            int no = stage.process(in, in.length, out);
+            assertTrue("got " + no, no >= 2 * in.length - 1 && no <= out.length);
+        }
+    }
+
+    /**
+     * Resamples a tone in blocks of different lengths, with output buffers
+     * of getMaxOutputLength() samples, and compares it with the tone
+     * resampled at once
+     */
+    private void checkBlocks(int inputRate, int outputRate) {
+        short[] in = tone(SAMPLES);
+
+        ResampleStage whole = new ResampleStage(inputRate, outputRate);
+        short[] expected = new short[whole.getMaxOutputLength(SAMPLES)];
+        int expectedLen = whole.process(in, SAMPLES, expected);
+        // The samples after the last input sample come with the next block
+        long nominal = (long)SAMPLES * outputRate / inputRate;
+        assertTrue("got " + expectedLen + " of " + nominal,
+                   Math.abs(expectedLen - nominal) <= outputRate / inputRate + 1);
+
+        ResampleStage stage = new ResampleStage(inputRate, outputRate);
+        short[] block = new short[320];
+        int pos = 0;
+        int outPos = 0;
+        for (int i = 0; pos < SAMPLES; i++) {
+            int length = Math.min(BLOCK_LENGTHS[i % BLOCK_LENGTHS.length], SAMPLES - pos);
+            System.arraycopy(in, pos, block, 0, length);
+            short[] out = new short[stage.getMaxOutputLength(length)];
+            int no = stage.process(block, length, out);
+            for (int j = 0; j < no; j++)
+                assertEquals("sample " + (outPos + j), expected[outPos + j], out[j]);
+            outPos += no;
+            pos += length;
+        }
+        assertEquals(expectedLen, outPos);
+    }
+
+    private static short[] tone(int samples) {
+        short[] tone = new short[samples];
+        for (int i = 0; i < samples; i++)
+            tone[i] = (short)(8000 * Math.sin(2 * Math.PI * 440 * i / 8000));
+        return tone;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the capture path does not allocate memory: the stages of the
+ * sound chain, the voice detector, the encoders of every level, the
+ * redundant copies, the silence descriptors and the end of the talk spurts.
+ * The sound alternates between a tone and quiet noise, so every one of them
+ * runs. The codecs are the fake ones, so the test runs without speex.
+ */
+public class SoundProcessorAllocationTest extends TestCase {
+    private static final int BLOCK_LEN = 320;
+    private static final int SPURT_BLOCKS = 50;
+    private static final int WARM_UP_BLOCKS = 20000;
+    private static final int MEASURED_BLOCKS = 2000;
+
+    private short[][] mBlocks;
+    private byte[] mOut;
+    private long mCaptureNanos = 0;
+
+    @Override
+    protected void setUp() {
+        // A talk spurt of tone followed by the same time of noise
+        mBlocks = new short[2 * SPURT_BLOCKS][BLOCK_LEN];
+        ToneSource tone = new ToneSource(440, 0.3);
+        int seed = 1;
+        for (int i = 0; i < SPURT_BLOCKS; i++) {
+            tone.read(mBlocks[i], 0, BLOCK_LEN);
+            for (int j = 0; j < BLOCK_LEN; j++) {
+                seed = seed * 1103515245 + 12345;
+                mBlocks[SPURT_BLOCKS + i][j] = (short)((seed >> 16) % 20);
+            }
+        }
+        mOut = new byte[64 * 1024];
+    }
+
+    public void testProcessorDoesNotAllocate() {
+        SoundProcessor processor = new SoundProcessor(BLOCK_LEN, new FakeCodecFactory());
+        assertEquals(0, measure(processor));
+    }
+
+    public void testChainDoesNotAllocate() {
+        SoundProcessor processor = new SoundProcessor(BLOCK_LEN, new FakeCodecFactory());
+        SoundChain chain = new SoundChain(processor, BLOCK_LEN);
+        chain.addStage(new GainStage(1.5f));
+        chain.addStage(new GateStage(10, 5));
+        chain.addStage(new ResampleStage(8000, 11025));
+        chain.addStage(new ResampleStage(11025, 8000));
+        assertEquals(0, measure(chain));
+    }
+
+    /**
+     * Encodes at two levels, warms up and then measures
+     * @param processor - the processor to drive
+     * @return the bytes allocated by the measured blocks
+     */
+    private long measure(ISoundProcessor processor) {
+        processor.getQualityLadder().acquireLevel(0);
+        processor.getQualityLadder().acquireLevel(QualityLadder.TOP_LEVEL);
+        int encoded = 0;
+        for (int i = 0; i < WARM_UP_BLOCKS; i++)
+            encoded += feed(processor, i);
+        assertTrue("nothing was encoded", encoded > 0);
+
+        long start = ThreadAllocations.get();
+        for (int i = 0; i < MEASURED_BLOCKS; i++)
+            feed(processor, i);
+        return ThreadAllocations.since(start);
+    }
+
+    /**
+     * Feeds a block the way the encode thread does, and takes the frames
+     * the way the send thread does
+     * @return the number of bytes encoded
+     */
+    private int feed(ISoundProcessor processor, int block) {
+        mCaptureNanos += BLOCK_LEN * 1000000000L / 8000;
+        processor.setCaptureTime(mCaptureNanos);
+        processor.addRawSound(mBlocks[block % mBlocks.length], BLOCK_LEN);
+        // The microphone is turned off now and then
+        if (block % (10 * SPURT_BLOCKS) == SPURT_BLOCKS / 2)
+            processor.endTalkSpurt();
+        return processor.getProcessedSound(mOut, mOut.length);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Copyright (c) 2013, Alexandru Sutii
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motolky.sound;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated by the current thread, with the counter of the
+ * host JVM. The tests use it to check that a path does not allocate once it
+ * has run for a while.
+ */
+public class ThreadAllocations {
+    private static final ThreadMXBean BEAN = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private static final long OVERHEAD = measureOverhead();
+
+    /**
+     * @return the bytes allocated by the current thread since it started
+     */
+    public static long get() {
+        return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param start - what get() returned before the measured code
+     * @return the bytes allocated by the current thread since start, without
+     *         the ones allocated by the counter itself
+     */
+    public static long since(long start) {
+        return Math.max(get() - start - OVERHEAD, 0);
+    }
+
+    private static long measureOverhead() {
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10000; i++) {
+            long start = get();
+            overhead = Math.min(overhead, get() - start);
+        }
+        return overhead;
+    }
+}